@@ -0,0 +1,87 @@
+package org.apache.flume.interceptor;
+
+/**
+ * Time Budgeted Character Sequence
+ *
+ * Wraps the data a regular expression is matched against and aborts the match once it has run for too long <p>
+ *
+ * A backtracking regular expression reads its input one character at a time, so the clock is checked every
+ * CHECK_INTERVAL characters read. When the deadline has passed, or the thread was interrupted, the read throws a
+ * BudgetExceededException that unwinds the matcher. This bounds the time spent on a pathological input without
+ * a watchdog thread <p>
+ *
+ * An instance keeps the count of the characters read since the last check, so it must only be used by one thread.
+ *
+ */
+public class BudgetedCharSequence implements CharSequence {
+
+  /* Characters read between two checks of the clock */
+  private static final int CHECK_INTERVAL = 1024;
+
+  private final CharSequence sequence;
+
+  private long deadline;
+
+  private int countdown;
+
+  public BudgetedCharSequence(final CharSequence sequence) {
+    this.sequence = sequence;
+  }
+
+  /**
+   * Starts a new budget, before each match
+   *
+   * @param budgetNanos nanoseconds the next match may take
+   */
+  public void start(final long budgetNanos) {
+    this.deadline = System.nanoTime() + budgetNanos;
+    this.countdown = CHECK_INTERVAL;
+  }
+
+  @Override
+  public char charAt(final int index) {
+
+    if (--countdown <= 0) {
+
+      countdown = CHECK_INTERVAL;
+
+      if (System.nanoTime() - deadline > 0L || Thread.currentThread().isInterrupted()) {
+        throw new BudgetExceededException();
+      }
+    }
+
+    return sequence.charAt(index);
+  }
+
+  @Override
+  public int length() {
+    return sequence.length();
+  }
+
+  /**
+   * Used to read the groups of a successful match, which is no longer budgeted
+   */
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    return sequence.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return sequence.toString();
+  }
+
+  /**
+   * Thrown from the middle of a match that ran out of time
+   *
+   */
+  public static class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BudgetExceededException() {
+      // No stack trace, the exception is expected and only used to unwind the matcher
+      super("The regular expression exceeded its time budget", null, false, false);
+    }
+  }
+}
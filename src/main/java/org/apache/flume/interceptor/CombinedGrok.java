@@ -0,0 +1,365 @@
+package org.apache.flume.interceptor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combined Grok Expression
+ *
+ * Finds the first of several digested Grok expressions that matches an input in a single scan <p>
+ *
+ * The expressions become the branches of one alternation. Every capturing group is renamed so the
+ * branches can share a pattern, and the named groups are mapped back to their original names per branch.
+ * The scan stops at the leftmost position where any branch matches, and at that position the first
+ * branch of the alternation wins. The winning branch captures exactly what Grok.extractNamedGroups()
+ * returns for the expression on its own <p>
+ *
+ * The branches are in configured order unless the expressions are reordered, in which case the branches
+ * keep their numbers but are tried in the new order at each position <p>
+ *
+ * The match can be limited to the branches that are known to be able to match (see LiteralPrefilter).
+ * The alternations of these subsets of branches are compiled the first time they are needed and kept,
+ * up to MAX_SUBSET_PATTERNS. Past that the alternation of every branch is used, which finds the same match.
+ *
+ */
+public class CombinedGrok {
+
+  private static final int MAX_SUBSET_PATTERNS = 256;
+
+  private final int branchCount;
+
+  /* Each expression with its groups renamed, wrapped in a group named after its branch */
+  private final String[] branchRegexes;
+
+  /* Per branch, the original group names and the renamed groups they are read from */
+  private final List<Map<String, String>> branchGroupNames;
+
+  /* Branches in the order they appear in the alternation */
+  private final int[] order;
+
+  private final BitSet allBranches;
+
+  private final Pattern pattern;
+
+  private final ConcurrentMap<BitSet, Pattern> subsetPatterns = new ConcurrentHashMap<BitSet, Pattern>();
+
+  /**
+   * @param regexes digested Grok expressions (regular expressions with named groups), in configured order
+   */
+  public CombinedGrok(final List<String> regexes) {
+
+    this.branchCount = regexes.size();
+    this.branchRegexes = new String[branchCount];
+    this.branchGroupNames = new ArrayList<Map<String, String>>(branchCount);
+    this.allBranches = new BitSet(branchCount);
+    this.order = new int[branchCount];
+
+    for (int branch = 0; branch < branchCount; branch++) {
+
+      final Map<String, String> groupNames = new LinkedHashMap<String, String>();
+      final StringBuilder renamed = new StringBuilder();
+
+      renamed.append("(?<").append(branchGroup(branch)).append('>');
+      rename(regexes.get(branch), branchGroup(branch) + "g", groupNames, renamed);
+      renamed.append(')');
+
+      branchRegexes[branch] = renamed.toString();
+      branchGroupNames.add(groupNames);
+      allBranches.set(branch);
+      order[branch] = branch;
+    }
+
+    this.pattern = compile(allBranches);
+  }
+
+  private CombinedGrok(final CombinedGrok combinedGrok, final int[] order) {
+
+    this.branchCount = combinedGrok.branchCount;
+    this.branchRegexes = combinedGrok.branchRegexes;
+    this.branchGroupNames = combinedGrok.branchGroupNames;
+    this.allBranches = combinedGrok.allBranches;
+    this.order = order.clone();
+    this.pattern = compile(allBranches);
+  }
+
+  /**
+   * The same expressions, tried in another order
+   *
+   * @param order every branch once, in the order they are to be tried
+   * @return a new combined expression, whose matches still report the branches by their configured number
+   */
+  public CombinedGrok reorder(final int[] order) {
+    return new CombinedGrok(this, order);
+  }
+
+  /**
+   * Number of expressions combined
+   */
+  public int getBranchCount() {
+    return branchCount;
+  }
+
+  /**
+   * Finds the branch that matches first
+   *
+   * @param input the data to match
+   * @return the matching branch and its named groups, or null if no branch matched
+   */
+  public Match match(final CharSequence input) {
+    return match(input, allBranches);
+  }
+
+  /**
+   * Finds the branch that matches first among some of the branches
+   *
+   * @param input the data to match
+   * @param branches the branches to consider, the others must not be able to match the input
+   * @return the matching branch and its named groups, or null if no branch matched
+   */
+  public Match match(final CharSequence input, final BitSet branches) {
+
+    if (branches.isEmpty()) {
+      return null;
+    }
+
+    BitSet matchedBranches = branches;
+    Pattern subsetPattern = (branches.cardinality() == branchCount) ? pattern : subsetPatterns.get(branches);
+
+    if (subsetPattern == null && subsetPatterns.size() < MAX_SUBSET_PATTERNS) {
+
+      final BitSet key = (BitSet) branches.clone();
+
+      subsetPattern = compile(key);
+      subsetPatterns.putIfAbsent(key, subsetPattern);
+
+    } else if (subsetPattern == null) {
+      subsetPattern = pattern;
+      matchedBranches = allBranches;
+    }
+
+    final Matcher matcher = subsetPattern.matcher(input);
+
+    if (!matcher.find()) {
+      return null;
+    }
+
+    for (int branch = matchedBranches.nextSetBit(0); branch >= 0; branch = matchedBranches.nextSetBit(branch + 1)) {
+
+      if (matcher.group(branchGroup(branch)) != null) {
+
+        final Map<String, String> groupNames = branchGroupNames.get(branch);
+        final Map<String, String> namedGroups = new LinkedHashMap<String, String>(groupNames.size() * 2);
+
+        for (Map.Entry<String, String> groupName : groupNames.entrySet()) {
+          namedGroups.put(groupName.getKey(), matcher.group(groupName.getValue()));
+        }
+
+        return new Match(branch, namedGroups);
+      }
+    }
+
+    throw new IllegalStateException("No branch of the combined expression matched");
+  }
+
+  private Pattern compile(final BitSet branches) {
+
+    final StringBuilder combined = new StringBuilder();
+
+    for (int branch : order) {
+
+      if (!branches.get(branch)) {
+        continue;
+      }
+
+      if (combined.length() > 0) {
+        combined.append('|');
+      }
+
+      combined.append(branchRegexes[branch]);
+    }
+
+    return Pattern.compile(combined.toString());
+  }
+
+  private static String branchGroup(final int branch) {
+    return "e" + branch;
+  }
+
+  /**
+   * Gives every capturing group of a regular expression a unique name, using the named group syntax of Grok <p>
+   *
+   * Numbered back references are turned into references to the renamed groups, so they stay valid
+   * wherever the expression ends up in the alternation. When a name is used more than once its first
+   * group provides the value, as Grok does.
+   *
+   * @param regex the digested expression
+   * @param prefix prefix of the new group names
+   * @param groupNames receives the original names mapped to the new name of their first group
+   * @param renamed receives the rewritten expression
+   */
+  static void rename(final String regex, final String prefix, final Map<String, String> groupNames, final StringBuilder renamed) {
+
+    final Map<String, String> firstGroups = new HashMap<String, String>();
+    final int length = regex.length();
+
+    int capturingGroups = 0;
+    int classDepth = 0;
+    int i = 0;
+
+    while (i < length) {
+
+      final char c = regex.charAt(i);
+
+      if (c == '\\' && i + 1 < length) {
+
+        final char next = regex.charAt(i + 1);
+
+        if (next == 'Q') {
+
+          // Quoted section, copied untouched up to and including \E
+          final int end = regex.indexOf("\\E", i + 2);
+          final int stop = (end < 0) ? length : end + 2;
+
+          renamed.append(regex, i, stop);
+          i = stop;
+
+        } else if (next == 'k' && classDepth == 0 && i + 2 < length && regex.charAt(i + 2) == '<') {
+
+          final int end = regex.indexOf('>', i + 3);
+          final String name = (end < 0) ? null : firstGroups.get(regex.substring(i + 3, end));
+
+          if (name == null) {
+            renamed.append(c).append(next);
+            i += 2;
+          } else {
+            renamed.append("\\k<").append(name).append('>');
+            i = end + 1;
+          }
+
+        } else if (next >= '1' && next <= '9' && classDepth == 0) {
+
+          // Like Pattern, only take as many digits as make up the number of a group seen so far
+          int group = next - '0';
+          i += 2;
+
+          while (i < length && Character.isDigit(regex.charAt(i)) && group * 10 + (regex.charAt(i) - '0') <= capturingGroups) {
+            group = group * 10 + (regex.charAt(i) - '0');
+            i++;
+          }
+
+          if (group <= capturingGroups) {
+            renamed.append("\\k<").append(prefix).append(group).append('>');
+          } else {
+            // A reference to a group that does not exist never matches
+            renamed.append("(?!)");
+          }
+
+        } else {
+          renamed.append(c).append(next);
+          i += 2;
+        }
+
+        continue;
+      }
+
+      if (classDepth > 0) {
+
+        if (c == '[') {
+          classDepth++;
+        } else if (c == ']') {
+          classDepth--;
+        }
+
+        renamed.append(c);
+        i++;
+        continue;
+      }
+
+      if (c == '[') {
+
+        classDepth = 1;
+        renamed.append(c);
+        i++;
+
+        // A closing bracket right at the start of a class is a literal
+        if (i < length && regex.charAt(i) == '^') {
+          renamed.append('^');
+          i++;
+        }
+
+        if (i < length && regex.charAt(i) == ']') {
+          renamed.append(']');
+          i++;
+        }
+
+        continue;
+      }
+
+      if (c == '(') {
+
+        if (i + 1 < length && regex.charAt(i + 1) == '?') {
+
+          final boolean named = i + 3 < length && regex.charAt(i + 2) == '<'
+              && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!';
+          final int end = named ? regex.indexOf('>', i + 3) : -1;
+
+          if (end > 0) {
+
+            final String name = regex.substring(i + 3, end);
+            final String newName = prefix + (++capturingGroups);
+
+            if (!firstGroups.containsKey(name)) {
+              firstGroups.put(name, newName);
+              groupNames.put(name, newName);
+            }
+
+            renamed.append("(?<").append(newName).append('>');
+            i = end + 1;
+            continue;
+          }
+
+        } else {
+
+          // Plain capturing groups are named too so that numbered back references can point at them
+          renamed.append("(?<").append(prefix).append(++capturingGroups).append('>');
+          i++;
+          continue;
+        }
+      }
+
+      renamed.append(c);
+      i++;
+    }
+  }
+
+  /**
+   * The branch that matched and what it captured
+   */
+  public static class Match {
+
+    private final int branch;
+
+    private final Map<String, String> namedGroups;
+
+    public Match(final int branch, final Map<String, String> namedGroups) {
+      this.branch = branch;
+      this.namedGroups = namedGroups;
+    }
+
+    public int getBranch() {
+      return branch;
+    }
+
+    public Map<String, String> getNamedGroups() {
+      return namedGroups;
+    }
+  }
+}
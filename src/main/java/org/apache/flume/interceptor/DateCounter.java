@@ -0,0 +1,80 @@
+package org.apache.flume.interceptor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics for the DateInterceptor <p>
+ *
+ * Each date format counts the timestamps it parsed, and the interceptor the timestamps that none of them parsed
+ *
+ */
+public class DateCounter extends InterceptorCounterGroup implements DateCounterMBean {
+
+  private final String[] dateFormats;
+
+  /* Timestamps parsed by each format */
+  private final AtomicLongArray parsedCounts;
+
+  private final AtomicLong missCount = new AtomicLong(0L);
+
+  /**
+   * @param name name of the interceptor
+   * @param dateFormats the formats of the interceptor, in configured order
+   */
+  public DateCounter(final String name, final String[] dateFormats) {
+    super(name);
+    this.dateFormats = dateFormats;
+    this.parsedCounts = new AtomicLongArray(dateFormats.length);
+  }
+
+  /**
+   * Records a timestamp parsed by a format
+   *
+   * @param format index of the format in configured order
+   */
+  public void recordParsed(final int format) {
+    parsedCounts.incrementAndGet(format);
+  }
+
+  /**
+   * Records a timestamp that no format parsed
+   */
+  public void recordMiss() {
+    missCount.incrementAndGet();
+  }
+
+  @Override
+  public long getParsedCount() {
+
+    long count = 0L;
+
+    for (int i = 0; i < parsedCounts.length(); i++) {
+      count += parsedCounts.get(i);
+    }
+
+    return count;
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public String getFormatStats() {
+
+    final StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < dateFormats.length; i++) {
+
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+
+      builder.append(dateFormats[i]).append('=').append(parsedCounts.get(i));
+    }
+
+    return builder.toString();
+  }
+}
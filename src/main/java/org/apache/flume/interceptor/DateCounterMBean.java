@@ -0,0 +1,24 @@
+package org.apache.flume.interceptor;
+
+/**
+ * JMX view of the metrics published by the DateInterceptor <p>
+ *
+ * The parsed count is summed over all the date formats of the interceptor. The format statistics list, for each
+ * format, the timestamps it parsed as "format=parsed" pairs. Timestamps that no format parsed are only counted
+ * as misses
+ *
+ */
+public interface DateCounterMBean {
+
+  public long getParsedCount();
+
+  public long getMissCount();
+
+  public String getFormatStats();
+
+  public long getStartTime();
+
+  public long getStopTime();
+
+  public String getType();
+}
@@ -1,14 +1,20 @@
 package org.apache.flume.interceptor;
 
+import static org.apache.flume.interceptor.DateInterceptor.Constants.ADAPTIVE_ORDER;
+import static org.apache.flume.interceptor.DateInterceptor.Constants.ADAPTIVE_WINDOW;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.DATE_FORMAT;
+import static org.apache.flume.interceptor.DateInterceptor.Constants.DATE_FORMATS_PREFIX;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.DESTINATION;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.LOCALE_COUNTRY;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.LOCALE_LANGUAGE;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.LOCALE_PREFIX;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.LOCALE_VARIANT;
+import static org.apache.flume.interceptor.DateInterceptor.Constants.NAME;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.SOURCE;
 import static org.apache.flume.interceptor.DateInterceptor.Constants.TIMEZONE;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -16,8 +22,13 @@ import java.util.Map;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.joda.time.DateTime;
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.chrono.ISOChronology;
 import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeParser;
+import org.joda.time.format.DateTimeParserBucket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +47,17 @@ import com.google.common.base.Preconditions;
  *
  * http://joda-time.sourceforge.net/timezones.html <p>
  *
+ * The most common formats are parsed without Joda by a FastDateParser, which reuses the epoch of the
+ * previous timestamp when it shares the same second <p>
+ *
+ * Several date formats can be configured for sources with mixed timestamps. The formats are tried until one
+ * parses the whole value, by default in order of recent success (see HitRateOrder), so the format of most
+ * timestamps is usually tried first. A value that no format parses is left without a destination and counted
+ * as a miss in the DateCounter, without an exception being thrown or logged <p>
+ *
+ * Timestamps without an offset are in the configured timezone, and timestamps without a year in the current
+ * year of that timezone, which is updated when the new year starts <p>
+ *
  * @author iekpo
  *
  */
@@ -46,22 +68,49 @@ public class DateInterceptor implements Interceptor {
 
   private final String source;
   private final String destination;
-  private final DateTimeFormatter formatter;
 
+  /* The formats in configured order */
+  private final List<FormatHandler> formatHandlers;
+
+  /* The formats in configured order, tried in that order without a HitRateOrder */
+  private final int[] configuredOrder;
+
+  /* Null when the formats are always tried in configured order */
+  private final HitRateOrder hitRateOrder;
+
+  private final DateCounter counter;
+
+  /* The destination value written last, reused while the timestamps fall on the same millisecond */
+  private volatile EpochText lastEpoch = null;
+
+  /**
+   * @param dateFormats the formats, in configured order
+   * @param hitRateWindow timestamps between two reorderings of the formats, 0 to keep the configured order
+   * @param counter metrics of the formats
+   */
   private DateInterceptor(final String source, final String destination,
-      final String dateFormat, final String timezone, final Locale locale) {
+      final List<String> dateFormats, final String timezone, final Locale locale, final int hitRateWindow, final DateCounter counter) {
     this.source = source;
     this.destination = destination;
+    this.counter = counter;
+
+    formatHandlers = new ArrayList<FormatHandler>(dateFormats.size());
+    configuredOrder = new int[dateFormats.size()];
+
+    final DateTimeZone zone = DateTimeZone.forID(timezone);
 
-    formatter = org.joda.time.format.DateTimeFormat.forPattern(dateFormat).withDefaultYear(new DateTime().getYear());
-    formatter.withZone(org.joda.time.DateTimeZone.forID(timezone));
-    formatter.withOffsetParsed();
-    formatter.withLocale(locale);
+    for (int i = 0; i < dateFormats.size(); i++) {
+      formatHandlers.add(new FormatHandler(dateFormats.get(i), zone, locale));
+      configuredOrder[i] = i;
+    }
+
+    // A single format is always tried first
+    hitRateOrder = (hitRateWindow > 0 && dateFormats.size() > 1) ? new HitRateOrder(dateFormats.size(), hitRateWindow) : null;
   }
 
   @Override
   public void initialize() {
-
+    counter.start();
   }
 
   @Override
@@ -79,7 +128,7 @@ public class DateInterceptor implements Interceptor {
 
   @Override
   public void close() {
-
+    counter.stop();
   }
 
   private Event extractAndInsert(final Event event) {
@@ -89,24 +138,181 @@ public class DateInterceptor implements Interceptor {
 
     if (StringUtils.isNotBlank(sourceValue) && sourceValue.length() > 0) {
 
-      try {
-        String timestampValue = formatter.parseMillis(sourceValue) + "";
-        headers.put(destination, timestampValue);
-      } catch (Exception e) {
-        logger.error("Error while parsing date from {" + sourceValue + "}", e);
+      final int[] order = (hitRateOrder != null) ? hitRateOrder.getOrder() : configuredOrder;
+
+      for (int i : order) {
+
+        final long timestamp = formatHandlers.get(i).parseMillis(sourceValue);
+
+        if (timestamp != FastDateParser.UNPARSED) {
+          headers.put(destination, epochText(timestamp));
+          counter.recordParsed(i);
+          recordOutcome(i);
+          return event;
+        }
       }
+
+      counter.recordMiss();
+      recordOutcome(-1);
     }
 
     return event;
   }
 
+  /**
+   * The decimal epoch of a timestamp, the same String as the previous event when both share the millisecond
+   */
+  private String epochText(final long timestamp) {
+
+    final EpochText epoch = lastEpoch;
+
+    if (epoch != null && epoch.millis == timestamp) {
+      return epoch.text;
+    }
+
+    final String text = Long.toString(timestamp);
+
+    lastEpoch = new EpochText(timestamp, text);
+
+    return text;
+  }
+
+  private void recordOutcome(final int format) {
+
+    if (hitRateOrder != null && hitRateOrder.record(format)) {
+      logger.debug("Reordered the date formats of {}: {}", source, Arrays.toString(hitRateOrder.getOrder()));
+    }
+  }
+
+  /**
+   * Parses the timestamps of a single date format <p>
+   *
+   * Timestamps that do not match the format are rejected without an exception: the Joda parser of the format is
+   * run into a DateTimeParserBucket, the same way DateTimeFormatter.parseMillis() does, and the timestamp is only
+   * accepted if the whole value was parsed. Only field values out of range (February 30th, a local time skipped
+   * by a daylight saving transition) are still reported by Joda with an exception <p>
+   *
+   * The formatter and its fast parser are created for the current year, the year of the timestamps that have none,
+   * and created again once that year is over in the timezone of the format
+   *
+   */
+  static class FormatHandler {
+
+    private final String dateFormat;
+
+    private final DateTimeZone zone;
+
+    private final Locale locale;
+
+    /* Replaced when the year changes */
+    private volatile YearFormat yearFormat;
+
+    FormatHandler(final String dateFormat, final DateTimeZone zone, final Locale locale) {
+      this.dateFormat = dateFormat;
+      this.zone = zone;
+      this.locale = locale;
+      this.yearFormat = new YearFormat(System.currentTimeMillis());
+    }
+
+    /**
+     * @param text the timestamp
+     * @return the milliseconds since the epoch, or FastDateParser.UNPARSED if the timestamp does not match the format
+     */
+    long parseMillis(final String text) {
+
+      YearFormat current = yearFormat;
+
+      final long now = System.currentTimeMillis();
+
+      if (now >= current.nextYearMillis) {
+        current = new YearFormat(now);
+        yearFormat = current;
+      }
+
+      if (current.fastParser != null) {
+
+        final long timestamp = current.fastParser.parseMillis(text);
+
+        if (timestamp != FastDateParser.UNPARSED) {
+          return timestamp;
+        }
+      }
+
+      final DateTimeParserBucket bucket = new DateTimeParserBucket(0L, current.chronology, locale, null, current.year);
+
+      if (current.parser.parseInto(bucket, text, 0) != text.length()) {
+        return FastDateParser.UNPARSED;
+      }
+
+      try {
+        return bucket.computeMillis(true, text);
+      } catch (IllegalArgumentException e) {
+        return FastDateParser.UNPARSED;
+      }
+    }
+
+    /**
+     * The formatter of the format for one year
+     *
+     */
+    private class YearFormat {
+
+      private final int year;
+
+      /* Start of the next year in the timezone of the format */
+      private final long nextYearMillis;
+
+      private final DateTimeParser parser;
+
+      /* The ISO chronology in the timezone of the format */
+      private final Chronology chronology;
+
+      /* Null when the format has no fast parser */
+      private final FastDateParser fastParser;
+
+      YearFormat(final long now) {
+
+        chronology = ISOChronology.getInstance(zone);
+        year = chronology.year().get(now);
+        nextYearMillis = new LocalDate(year + 1, 1, 1).toDateTimeAtStartOfDay(zone).getMillis();
+
+        // Timestamps with an offset are converted with their own offset, and the others with the zone
+        final DateTimeFormatter formatter = org.joda.time.format.DateTimeFormat.forPattern(dateFormat)
+            .withLocale(locale)
+            .withZone(zone)
+            .withDefaultYear(year);
+
+        parser = formatter.getParser();
+        fastParser = FastDateParser.forFormat(dateFormat, formatter);
+      }
+    }
+  }
+
+  /**
+   * A timestamp and its decimal text
+   *
+   */
+  private static class EpochText {
+
+    private final long millis;
+
+    private final String text;
+
+    EpochText(final long millis, final String text) {
+      this.millis = millis;
+      this.text = text;
+    }
+  }
+
   public static class Builder implements Interceptor.Builder {
 
     private String source = null;
     private String destination = "timestamp";
-    private String dateFormat = null;
+    private List<String> dateFormats = null;
     private String timezone = "Etc/UTC";
     private Locale locale;
+    private int hitRateWindow = 0;
+    private DateCounter counter = null;
 
     @Override
     public void configure(Context context) {
@@ -119,8 +325,18 @@ public class DateInterceptor implements Interceptor {
           destination = context.getString(DESTINATION);
       }
 
+      dateFormats = new ArrayList<String>();
+
       if (StringUtils.isNotBlank(context.getString(DATE_FORMAT))) {
-          dateFormat = context.getString(DATE_FORMAT);
+          dateFormats.add(context.getString(DATE_FORMAT));
+      }
+
+      // Additional formats are numbered from 0, and tried after dateFormat in configured order until they are reordered
+      int currentFormatIndex = 0;
+
+      while (StringUtils.isNotBlank(context.getString(DATE_FORMATS_PREFIX + currentFormatIndex))) {
+        dateFormats.add(context.getString(DATE_FORMATS_PREFIX + currentFormatIndex));
+        currentFormatIndex++;
       }
 
       if (StringUtils.isNotBlank(context.getString(TIMEZONE))) {
@@ -148,8 +364,8 @@ public class DateInterceptor implements Interceptor {
 
       locale = new Locale(localeLanguage, localeCountry, localeVariant);
 
-      Preconditions.checkState(StringUtils.isNotBlank(dateFormat),
-          "Missing Param:" + DATE_FORMAT);
+      Preconditions.checkState(!dateFormats.isEmpty(),
+          "Missing Param:" + DATE_FORMAT + " or " + DATE_FORMATS_PREFIX + "0");
 
       Preconditions.checkState(StringUtils.isNotBlank(source),
           "Missing Param:" + SOURCE);
@@ -159,17 +375,33 @@ public class DateInterceptor implements Interceptor {
 
       Preconditions.checkState(StringUtils.isNotBlank(timezone),
           "Missing Param:" + TIMEZONE);
+
+      final boolean adaptiveOrder = context.getBoolean(ADAPTIVE_ORDER, true);
+      final int adaptiveWindow = context.getInteger(ADAPTIVE_WINDOW, 1000);
+
+      Preconditions.checkState(adaptiveWindow > 0, ADAPTIVE_WINDOW + " must be greater than zero");
+
+      // Formats are reordered after every window of timestamps, 0 to keep the configured order
+      hitRateWindow = adaptiveOrder ? adaptiveWindow : 0;
+
+      // The default name stays the same across configuration reloads, so that the metrics keep their name
+      counter = new DateCounter(context.getString(NAME, "DateInterceptor-" + source + "-" + destination),
+          dateFormats.toArray(new String[dateFormats.size()]));
     }
 
     @Override
     public Interceptor build() {
-      return new DateInterceptor(source, destination, dateFormat, timezone, locale);
+      return new DateInterceptor(source, destination, dateFormats, timezone, locale, hitRateWindow, counter);
     }
   }
 
   public static class Constants {
 
     public static final String DATE_FORMAT = "dateFormat";
+    public static final String DATE_FORMATS_PREFIX = "dateFormats.";
+    public static final String ADAPTIVE_ORDER = "adaptiveOrder";
+    public static final String ADAPTIVE_WINDOW = "adaptiveWindow";
+    public static final String NAME = "name";
     public static final String DESTINATION  = "destination";
     public static final String SOURCE  = "source";
     public static final String TIMEZONE = "timezone";
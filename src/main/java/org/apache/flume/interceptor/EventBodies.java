@@ -0,0 +1,89 @@
+package org.apache.flume.interceptor;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.flume.Event;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Decoded Event Bodies
+ *
+ * Decodes the body of an event once for the interceptors and the serializer that read it as text <p>
+ *
+ * The decoded body is kept in a small cache keyed by the identity of the body array. Every stage that asks
+ * for the body of the same event with the same charset gets the same String, as long as the event was not
+ * given a new body and the entry was not displaced by a more recent event. The cache is direct mapped and
+ * lock free, so a miss only costs the decoding that would have happened anyway <p>
+ *
+ * Bodies longer than MAX_CACHED_LENGTH are decoded on every request, to bound the memory held by the cache.
+ *
+ */
+public final class EventBodies {
+
+  /* Charset of the bodies unless configured otherwise. The FileSource always produces UTF-8 bodies */
+  public static final Charset DEFAULT_CHARSET = Charsets.UTF_8;
+
+  /* Number of slots, a power of two */
+  private static final int CACHE_SIZE = 1024;
+
+  private static final int MAX_CACHED_LENGTH = 16 * 1024;
+
+  private static final AtomicReferenceArray<DecodedBody> cache = new AtomicReferenceArray<DecodedBody>(CACHE_SIZE);
+
+  private EventBodies() {
+  }
+
+  /**
+   * The body of an event as text
+   *
+   * @param event the event
+   * @param charset charset of the body
+   * @return the decoded body
+   */
+  public static String decode(final Event event, final Charset charset) {
+
+    final byte[] body = event.getBody();
+
+    if (body == null) {
+      return null;
+    }
+
+    if (body.length > MAX_CACHED_LENGTH) {
+      return new String(body, charset);
+    }
+
+    final int slot = System.identityHashCode(body) & (CACHE_SIZE - 1);
+    final DecodedBody cached = cache.get(slot);
+
+    if (cached != null && cached.body.get() == body && cached.charset.equals(charset)) {
+      return cached.text;
+    }
+
+    final String text = new String(body, charset);
+
+    cache.set(slot, new DecodedBody(body, charset, text));
+
+    return text;
+  }
+
+  /**
+   * A body and its text. The body is weakly referenced so the cache does not keep delivered events alive
+   */
+  private static final class DecodedBody {
+
+    private final WeakReference<byte[]> body;
+
+    private final Charset charset;
+
+    private final String text;
+
+    private DecodedBody(final byte[] body, final Charset charset, final String text) {
+      this.body = new WeakReference<byte[]>(body);
+      this.charset = charset;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,410 @@
+package org.apache.flume.interceptor;
+
+import java.util.Locale;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Fast Date Parser
+ *
+ * Parses the most common timestamp layouts without allocating, for the DateInterceptor <p>
+ *
+ * The supported date formats are <p>
+ *
+ * yyyy-MM-dd HH:mm:ss and yyyy-MM-dd'T'HH:mm:ss, optionally followed by .SSS or ,SSS and then by Z, ZZ or 'Z' <p>
+ *
+ * MMM dd HH:mm:ss (syslog), with English month names <p>
+ *
+ * Consecutive log lines nearly always share their timestamp down to the second, so the epoch of the last
+ * second parsed is kept with the text it was parsed from. A timestamp that starts with the same text only
+ * has its fraction and offset parsed <p>
+ *
+ * The parser is strict: every field has exactly the width of the format. Anything else, including invalid
+ * dates and local times skipped by a daylight saving transition, is left to the Joda formatter it stands for,
+ * which either parses it more leniently or rejects it with the usual exception. The parser reads the zone and
+ * the default year from that formatter, so both always give the same result.
+ *
+ */
+public class FastDateParser {
+
+  /* Returned when the text is left to the Joda formatter */
+  public static final long UNPARSED = Long.MIN_VALUE;
+
+  private static final long MILLIS_PER_SECOND = 1000L;
+  private static final long MILLIS_PER_MINUTE = 60L * MILLIS_PER_SECOND;
+  private static final long MILLIS_PER_HOUR = 60L * MILLIS_PER_MINUTE;
+  private static final long MILLIS_PER_DAY = 24L * MILLIS_PER_HOUR;
+
+  private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+  /*
+   * Digits of .SSS parsed here. The pattern declares SSS as appendFractionOfSecond(3, 9), but the Joda 2.1 parser
+   * stops after as many digits as the pattern has S: it reads 1 to 3 digits, a shorter fraction being tenths or
+   * hundredths of a second, and rejects a fourth digit. A longer fraction is therefore left to Joda, which rejects it
+   */
+  private static final int MAX_FRACTION_DIGITS = 3;
+
+  private enum Layout { ISO, SYSLOG }
+
+  private enum Offset { NONE, LITERAL_Z, NO_COLON, COLON }
+
+  private final Layout layout;
+
+  /* Character between the date and the time of the ISO layout */
+  private final char dateTimeSeparator;
+
+  /* Character before the fraction of second, 0 without one */
+  private final char fractionSeparator;
+
+  private final Offset offset;
+
+  /* Length of the text up to and including the seconds */
+  private final int prefixLength;
+
+  private final DateTimeZone zone;
+
+  private final int defaultYear;
+
+  /* The last second parsed */
+  private volatile ParsedSecond lastSecond = null;
+
+  private FastDateParser(final Layout layout, final char dateTimeSeparator, final char fractionSeparator, final Offset offset,
+      final DateTimeZone zone, final int defaultYear) {
+    this.layout = layout;
+    this.dateTimeSeparator = dateTimeSeparator;
+    this.fractionSeparator = fractionSeparator;
+    this.offset = offset;
+    this.prefixLength = (layout == Layout.ISO) ? 19 : 15;
+    this.zone = zone;
+    this.defaultYear = defaultYear;
+  }
+
+  /**
+   * A fast parser for a date format, if it is supported
+   *
+   * @param dateFormat the pattern of the formatter
+   * @param formatter the formatter created from the pattern, with its zone, locale and default year
+   * @return the parser, or null if the format is not supported
+   */
+  public static FastDateParser forFormat(final String dateFormat, final DateTimeFormatter formatter) {
+
+    // Only the default ISO chronology is computed here
+    if (formatter.getChronology() != null && !(formatter.getChronology() instanceof ISOChronology)) {
+      return null;
+    }
+
+    final DateTimeZone zone = (formatter.getZone() != null) ? formatter.getZone() : DateTimeZone.getDefault();
+    final Locale locale = (formatter.getLocale() != null) ? formatter.getLocale() : Locale.getDefault();
+
+    if (dateFormat.equals("MMM dd HH:mm:ss")) {
+
+      if (!locale.getLanguage().equals(Locale.ENGLISH.getLanguage())) {
+        return null;
+      }
+
+      return new FastDateParser(Layout.SYSLOG, ' ', (char) 0, Offset.NONE, zone, formatter.getDefaultYear());
+    }
+
+    String remaining;
+    char dateTimeSeparator;
+
+    if (dateFormat.startsWith("yyyy-MM-dd HH:mm:ss")) {
+      dateTimeSeparator = ' ';
+      remaining = dateFormat.substring("yyyy-MM-dd HH:mm:ss".length());
+    } else if (dateFormat.startsWith("yyyy-MM-dd'T'HH:mm:ss")) {
+      dateTimeSeparator = 'T';
+      remaining = dateFormat.substring("yyyy-MM-dd'T'HH:mm:ss".length());
+    } else {
+      return null;
+    }
+
+    char fractionSeparator = 0;
+
+    if (remaining.startsWith(".SSS") || remaining.startsWith(",SSS")) {
+      fractionSeparator = remaining.charAt(0);
+      remaining = remaining.substring(4);
+    }
+
+    final Offset offset;
+
+    if (remaining.isEmpty()) {
+      offset = Offset.NONE;
+    } else if (remaining.equals("'Z'")) {
+      offset = Offset.LITERAL_Z;
+    } else if (remaining.equals("Z")) {
+      offset = Offset.NO_COLON;
+    } else if (remaining.equals("ZZ")) {
+      offset = Offset.COLON;
+    } else {
+      return null;
+    }
+
+    return new FastDateParser(Layout.ISO, dateTimeSeparator, fractionSeparator, offset, zone, formatter.getDefaultYear());
+  }
+
+  /**
+   * Parses a timestamp
+   *
+   * @param text the timestamp
+   * @return the milliseconds since the epoch, or UNPARSED if the text must be parsed by the Joda formatter
+   */
+  public long parseMillis(final String text) {
+
+    final int length = text.length();
+
+    if (length < prefixLength) {
+      return UNPARSED;
+    }
+
+    ParsedSecond second = lastSecond;
+
+    if (second == null || !text.regionMatches(0, second.text, 0, prefixLength)) {
+
+      final long localMillis = (layout == Layout.ISO) ? parseIsoSecond(text) : parseSyslogSecond(text);
+
+      if (localMillis == UNPARSED) {
+        return UNPARSED;
+      }
+
+      second = new ParsedSecond(text.substring(0, prefixLength), localMillis, toUTC(localMillis));
+      lastSecond = second;
+    }
+
+    int position = prefixLength;
+    long millisOfSecond = 0L;
+
+    if (fractionSeparator != 0) {
+
+      if (position >= length || text.charAt(position) != fractionSeparator) {
+        return UNPARSED;
+      }
+
+      position++;
+
+      int digits = 0;
+
+      while (position < length && digits < MAX_FRACTION_DIGITS && isDigit(text.charAt(position))) {
+        millisOfSecond = millisOfSecond * 10 + (text.charAt(position) - '0');
+        digits++;
+        position++;
+      }
+
+      if (digits == 0) {
+        return UNPARSED;
+      }
+
+      // A shorter fraction is in tenths or hundredths of a second
+      for (; digits < MAX_FRACTION_DIGITS; digits++) {
+        millisOfSecond *= 10;
+      }
+    }
+
+    switch (offset) {
+
+      case LITERAL_Z:
+
+        if (position != length - 1 || text.charAt(position) != 'Z') {
+          return UNPARSED;
+        }
+
+        return (second.utcMillis == UNPARSED) ? UNPARSED : second.utcMillis + millisOfSecond;
+
+      case NO_COLON:
+      case COLON:
+
+        final long offsetMillis = parseOffset(text, position);
+
+        return (offsetMillis == UNPARSED) ? UNPARSED : second.localMillis + millisOfSecond - offsetMillis;
+
+      default:
+
+        if (position != length) {
+          return UNPARSED;
+        }
+
+        return (second.utcMillis == UNPARSED) ? UNPARSED : second.utcMillis + millisOfSecond;
+    }
+  }
+
+  /**
+   * yyyy-MM-dd HH:mm:ss in local milliseconds
+   */
+  private long parseIsoSecond(final String text) {
+
+    final int year = parseDigits(text, 0, 4);
+    final int month = parseDigits(text, 5, 2);
+    final int day = parseDigits(text, 8, 2);
+
+    if (text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != dateTimeSeparator) {
+      return UNPARSED;
+    }
+
+    return localMillis(year, month, day, text, 11);
+  }
+
+  /**
+   * MMM dd HH:mm:ss in local milliseconds, in the default year
+   */
+  private long parseSyslogSecond(final String text) {
+
+    int month = 0;
+
+    for (int i = 0; i < MONTHS.length; i++) {
+      if (text.startsWith(MONTHS[i])) {
+        month = i + 1;
+        break;
+      }
+    }
+
+    if (month == 0 || text.charAt(3) != ' ' || text.charAt(6) != ' ') {
+      return UNPARSED;
+    }
+
+    return localMillis(defaultYear, month, parseDigits(text, 4, 2), text, 7);
+  }
+
+  /**
+   * Adds the HH:mm:ss at an index of the text to a date
+   */
+  private static long localMillis(final int year, final int month, final int day, final String text, final int index) {
+
+    final int hour = parseDigits(text, index, 2);
+    final int minute = parseDigits(text, index + 3, 2);
+    final int second = parseDigits(text, index + 6, 2);
+
+    if (text.charAt(index + 2) != ':' || text.charAt(index + 5) != ':') {
+      return UNPARSED;
+    }
+
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+        || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return UNPARSED;
+    }
+
+    return daysFromEpoch(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE
+        + second * MILLIS_PER_SECOND;
+  }
+
+  /**
+   * Converts local milliseconds to UTC as the Joda parser does, refusing local times that do not exist in the zone
+   */
+  private long toUTC(final long localMillis) {
+
+    final int offsetMillis = zone.getOffsetFromLocal(localMillis);
+    final long utcMillis = localMillis - offsetMillis;
+
+    return (offsetMillis == zone.getOffset(utcMillis)) ? utcMillis : UNPARSED;
+  }
+
+  /**
+   * Z (+0100), ZZ (+01:00) or Z for UTC at the end of the text
+   */
+  private long parseOffset(final String text, final int index) {
+
+    final int length = text.length();
+
+    if (index == length - 1 && text.charAt(index) == 'Z') {
+      return 0L;
+    }
+
+    final int expectedLength = (offset == Offset.COLON) ? 6 : 5;
+
+    if (length - index != expectedLength) {
+      return UNPARSED;
+    }
+
+    final char sign = text.charAt(index);
+    final int hours = parseDigits(text, index + 1, 2);
+    final int minutesIndex = (offset == Offset.COLON) ? index + 4 : index + 3;
+    final int minutes = parseDigits(text, minutesIndex, 2);
+
+    if ((sign != '+' && sign != '-') || hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+        || (offset == Offset.COLON && text.charAt(index + 3) != ':')) {
+      return UNPARSED;
+    }
+
+    final long offsetMillis = hours * MILLIS_PER_HOUR + minutes * MILLIS_PER_MINUTE;
+
+    return (sign == '-') ? -offsetMillis : offsetMillis;
+  }
+
+  /**
+   * The number written with exactly some digits at an index, or -1 if a character is not a digit
+   */
+  private static int parseDigits(final String text, final int index, final int digits) {
+
+    int value = 0;
+
+    for (int i = index; i < index + digits; i++) {
+
+      final char c = text.charAt(i);
+
+      if (!isDigit(c)) {
+        return -1;
+      }
+
+      value = value * 10 + (c - '0');
+    }
+
+    return value;
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLeapYear(final int year) {
+    return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+  }
+
+  private static int daysInMonth(final int year, final int month) {
+
+    switch (month) {
+      case 2:
+        return isLeapYear(year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Days from 1970-01-01 to a date of the proleptic Gregorian calendar
+   */
+  private static long daysFromEpoch(final int year, final int month, final int day) {
+
+    // Counts from March so the leap day comes last, in eras of 400 years
+    final int y = (month <= 2) ? year - 1 : year;
+    final long era = ((y >= 0) ? y : y - 399) / 400;
+    final long yearOfEra = y - era * 400;
+    final long dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+    final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /**
+   * A second parsed, with the text it was parsed from
+   */
+  private static final class ParsedSecond {
+
+    private final String text;
+
+    private final long localMillis;
+
+    /* UNPARSED if the local time does not exist in the zone */
+    private final long utcMillis;
+
+    private ParsedSecond(final String text, final long localMillis, final long utcMillis) {
+      this.text = text;
+      this.localMillis = localMillis;
+      this.utcMillis = utcMillis;
+    }
+  }
+}
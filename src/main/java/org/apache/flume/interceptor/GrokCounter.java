@@ -0,0 +1,197 @@
+package org.apache.flume.interceptor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics for the GrokInterceptor <p>
+ *
+ * Each entry records its own counts in an EntryCounter, and each result cache its hits and misses. The attributes
+ * of the interceptor are summed over the entries and the caches when they are read
+ *
+ */
+public class GrokCounter extends InterceptorCounterGroup implements GrokCounterMBean {
+
+  private final List<EntryCounter> entryCounters = new CopyOnWriteArrayList<EntryCounter>();
+
+  private final List<GrokResultCache> resultCaches = new CopyOnWriteArrayList<GrokResultCache>();
+
+  public GrokCounter(final String name) {
+    super(name);
+  }
+
+  /**
+   * Creates the counter of an entry, reported with the others
+   *
+   * @param entryName name of the entry, as configured
+   */
+  public EntryCounter addEntry(final String entryName) {
+
+    final EntryCounter entryCounter = new EntryCounter(entryName);
+
+    entryCounters.add(entryCounter);
+
+    return entryCounter;
+  }
+
+  /**
+   * Reports the hits and misses of a result cache with the others
+   */
+  public void addResultCache(final GrokResultCache resultCache) {
+    resultCaches.add(resultCache);
+  }
+
+  @Override
+  public long getMatchCount() {
+
+    long count = 0L;
+
+    for (EntryCounter entryCounter : entryCounters) {
+      count += entryCounter.getMatchCount();
+    }
+
+    return count;
+  }
+
+  @Override
+  public long getMissCount() {
+
+    long count = 0L;
+
+    for (EntryCounter entryCounter : entryCounters) {
+      count += entryCounter.getMissCount();
+    }
+
+    return count;
+  }
+
+  @Override
+  public long getTimeoutCount() {
+
+    long count = 0L;
+
+    for (EntryCounter entryCounter : entryCounters) {
+      count += entryCounter.getTimeoutCount();
+    }
+
+    return count;
+  }
+
+  @Override
+  public long getMatchTime() {
+
+    long nanos = 0L;
+
+    for (EntryCounter entryCounter : entryCounters) {
+      nanos += entryCounter.getNanos();
+    }
+
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  @Override
+  public long getCacheHitCount() {
+
+    long count = 0L;
+
+    for (GrokResultCache resultCache : resultCaches) {
+      count += resultCache.getHitCount();
+    }
+
+    return count;
+  }
+
+  @Override
+  public long getCacheMissCount() {
+
+    long count = 0L;
+
+    for (GrokResultCache resultCache : resultCaches) {
+      count += resultCache.getMissCount();
+    }
+
+    return count;
+  }
+
+  @Override
+  public String getEntryStats() {
+
+    final StringBuilder builder = new StringBuilder();
+
+    for (EntryCounter entryCounter : entryCounters) {
+
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+
+      builder.append(entryCounter);
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Counts of a single entry
+   *
+   */
+  public static class EntryCounter {
+
+    private final String name;
+
+    private final AtomicLong matchCount = new AtomicLong(0L);
+
+    private final AtomicLong missCount = new AtomicLong(0L);
+
+    private final AtomicLong timeoutCount = new AtomicLong(0L);
+
+    /* Nanoseconds spent evaluating the expression of the entry, whatever the outcome */
+    private final AtomicLong nanos = new AtomicLong(0L);
+
+    public EntryCounter(final String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getMatchCount() {
+      return matchCount.get();
+    }
+
+    public long getMissCount() {
+      return missCount.get();
+    }
+
+    public long getTimeoutCount() {
+      return timeoutCount.get();
+    }
+
+    public long getNanos() {
+      return nanos.get();
+    }
+
+    public void recordMatch(final long elapsedNanos) {
+      matchCount.incrementAndGet();
+      nanos.addAndGet(elapsedNanos);
+    }
+
+    public void recordMiss(final long elapsedNanos) {
+      missCount.incrementAndGet();
+      nanos.addAndGet(elapsedNanos);
+    }
+
+    public void recordTimeout(final long elapsedNanos) {
+      timeoutCount.incrementAndGet();
+      nanos.addAndGet(elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+      return name + "=" + matchCount.get() + "/" + missCount.get() + "/" + timeoutCount.get() + "/"
+          + TimeUnit.NANOSECONDS.toMillis(nanos.get()) + "ms";
+    }
+  }
+}
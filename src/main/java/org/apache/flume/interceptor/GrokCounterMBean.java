@@ -0,0 +1,34 @@
+package org.apache.flume.interceptor;
+
+/**
+ * JMX view of the metrics published by the GrokInterceptor <p>
+ *
+ * The counts are summed over all the entries of the interceptor. The entry statistics list, for each entry,
+ * its matches, misses, timeouts and the milliseconds spent evaluating it as "entries.N=matches/misses/timeouts/time"
+ * pairs, to find the expensive expressions. The values answered by the result caches are only counted as cache hits <p>
+ *
+ * Times are in milliseconds
+ *
+ */
+public interface GrokCounterMBean {
+
+  public long getMatchCount();
+
+  public long getMissCount();
+
+  public long getTimeoutCount();
+
+  public long getMatchTime();
+
+  public long getCacheHitCount();
+
+  public long getCacheMissCount();
+
+  public String getEntryStats();
+
+  public long getStartTime();
+
+  public long getStopTime();
+
+  public String getType();
+}
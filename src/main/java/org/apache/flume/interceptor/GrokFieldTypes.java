@@ -0,0 +1,166 @@
+package org.apache.flume.interceptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.aicer.grok.exception.GrokCompilationException;
+
+/**
+ * Grok Field Types
+ *
+ * The types declared for the fields of a Grok expression with %{PATTERN:field:type}, and the header that carries them <p>
+ *
+ * Headers are strings, so the types of the fields an entry extracts are listed in a type hint header as
+ * "field:type" pairs separated by commas, for example "age:int,ratio:float". A field is listed once the
+ * entry has written it, with the type of the entry that wrote it last. Serializers read the hint to emit
+ * the fields with their native types instead of guessing them from the values <p>
+ *
+ * The supported types are int, long, float and bool.
+ *
+ */
+public class GrokFieldTypes {
+
+  public static final String DEFAULT_HEADER = "grokTypes";
+
+  public static final String INT = "int";
+  public static final String LONG = "long";
+  public static final String FLOAT = "float";
+  public static final String BOOL = "bool";
+
+  private static final Set<String> TYPES = new HashSet<String>(Arrays.asList(INT, LONG, FLOAT, BOOL));
+
+  private static final String REFERENCE_START = "%{";
+  private static final String REFERENCE_END = "}";
+
+  private final String header;
+
+  /* Declared type of each typed field */
+  private final Map<String, String> types;
+
+  /**
+   * @param header name of the type hint header
+   * @param types the declared type of each typed field
+   */
+  public GrokFieldTypes(final String header, final Map<String, String> types) {
+    this.header = header;
+    this.types = types;
+  }
+
+  /**
+   * Reads the types declared in the references of an expression, %{PATTERN:field:type}
+   *
+   * @param expression the Grok expression
+   * @return the type of each typed field, in the order of the expression
+   * @throws GrokCompilationException if a type is not supported
+   */
+  public static Map<String, String> declaredTypes(final String expression) {
+
+    final Map<String, String> types = new LinkedHashMap<String, String>();
+
+    int start = expression.indexOf(REFERENCE_START);
+
+    while (start >= 0) {
+
+      final int end = expression.indexOf(REFERENCE_END, start + REFERENCE_START.length());
+
+      if (end < 0) {
+        break;
+      }
+
+      final String[] parts = expression.substring(start + REFERENCE_START.length(), end).split(":", 3);
+
+      if (parts.length == 3) {
+
+        if (!TYPES.contains(parts[2])) {
+          throw new GrokCompilationException("Unsupported type " + parts[2] + " for field " + parts[1] + ". Expected one of " + TYPES);
+        }
+
+        types.put(parts[1], parts[2]);
+      }
+
+      start = expression.indexOf(REFERENCE_START, end + REFERENCE_END.length());
+    }
+
+    return types;
+  }
+
+  public boolean isEmpty() {
+    return types.isEmpty();
+  }
+
+  /**
+   * Records the type of a field that was just written in the type hint header, if the field is typed
+   *
+   * @param headers headers of the event
+   * @param field the field written
+   */
+  public void annotate(final Map<String, String> headers, final String field) {
+
+    final String type = types.get(field);
+
+    if (type == null) {
+      return;
+    }
+
+    final String hint = headers.get(header);
+
+    if (hint == null || hint.isEmpty()) {
+      headers.put(header, field + ":" + type);
+      return;
+    }
+
+    final Map<String, String> hinted = parse(hint);
+
+    if (type.equals(hinted.put(field, type))) {
+      return;
+    }
+
+    headers.put(header, format(hinted));
+  }
+
+  /**
+   * Reads a type hint header
+   *
+   * @param hint the value of the header, or null
+   * @return the type of each field listed, empty if there is no hint
+   */
+  public static Map<String, String> parse(final String hint) {
+
+    if (hint == null || hint.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    final Map<String, String> hinted = new LinkedHashMap<String, String>();
+
+    for (String pair : hint.split(",")) {
+
+      final int separator = pair.lastIndexOf(':');
+
+      if (separator > 0) {
+        hinted.put(pair.substring(0, separator), pair.substring(separator + 1));
+      }
+    }
+
+    return hinted;
+  }
+
+  private static String format(final Map<String, String> hinted) {
+
+    final StringBuilder builder = new StringBuilder();
+
+    for (Map.Entry<String, String> pair : hinted.entrySet()) {
+
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+
+      builder.append(pair.getKey()).append(':').append(pair.getValue());
+    }
+
+    return builder.toString();
+  }
+}
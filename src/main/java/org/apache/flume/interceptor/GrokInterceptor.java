@@ -1,22 +1,46 @@
 package org.apache.flume.interceptor;
 
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.ADAPTIVE_ORDER;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.ADAPTIVE_WINDOW;
 import static org.apache.flume.interceptor.GrokInterceptor.Constants.BODY_FIELD_NAME;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.BREAK_ON_FIRST_MATCH;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.CHARSET;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.COMBINE_ENTRIES;
 import static org.apache.flume.interceptor.GrokInterceptor.Constants.ENTRIES_PREFIX;
 import static org.apache.flume.interceptor.GrokInterceptor.Constants.EXPRESSION;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.LITERAL_PREFILTER;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.MATCH_TIMEOUT_MILLIS;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.NAME;
 import static org.apache.flume.interceptor.GrokInterceptor.Constants.OVERRIDE;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.PARALLEL;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.PARALLELISM;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.PARALLEL_THRESHOLD;
 import static org.apache.flume.interceptor.GrokInterceptor.Constants.PATTERNS_DIR;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.RESULT_CACHE_MAX_LINE_LENGTH;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.RESULT_CACHE_SIZE;
 import static org.apache.flume.interceptor.GrokInterceptor.Constants.SOURCE;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.TIMEOUT_HEADER;
+import static org.apache.flume.interceptor.GrokInterceptor.Constants.TYPE_HINT_HEADER;
 
-import java.io.File;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
-import org.aicer.grok.dictionary.GrokDictionary;
 import org.aicer.grok.util.Grok;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.interceptor.BudgetedCharSequence.BudgetExceededException;
+import org.apache.flume.interceptor.GrokCounter.EntryCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,22 +50,72 @@ public class GrokInterceptor implements Interceptor {
 
   private static final Logger logger = LoggerFactory.getLogger(GrokInterceptor.class);
 
-  private final List <GrokHandler> grokHandlers;
+  /* Smallest number of events handled by a single task of a parallel batch */
+  private static final int MIN_TASK_SIZE = 16;
 
-  public GrokInterceptor(List <GrokHandler> grokHandlers) {
-    this.grokHandlers = grokHandlers;
+  /* Tasks per pool thread a parallel batch is split into, so the threads stay busy when events take unequal time */
+  private static final int TASKS_PER_THREAD = 4;
+
+  /* Pool shared by every GrokInterceptor in the JVM that processes its batches in parallel */
+  private static ForkJoinPool sharedPool = null;
+
+  private final List <GrokSourceHandler> sourceHandlers;
+
+  /* Null when batches are processed on the calling thread */
+  private final ForkJoinPool pool;
+
+  private final int parallelThreshold;
+
+  /* Null when the interceptor does not publish metrics */
+  private final GrokCounter counter;
+
+  public GrokInterceptor(List <GrokSourceHandler> sourceHandlers) {
+    this(sourceHandlers, null, 0, null);
+  }
+
+  /**
+   * @param sourceHandlers the handlers of the entries
+   * @param pool pool that processes large batches, or null to process every batch on the calling thread
+   * @param parallelThreshold smallest batch that is processed by the pool
+   * @param counter metrics of the entries, or null
+   */
+  public GrokInterceptor(List <GrokSourceHandler> sourceHandlers, ForkJoinPool pool, int parallelThreshold, GrokCounter counter) {
+    this.sourceHandlers = sourceHandlers;
+    this.pool = pool;
+    this.parallelThreshold = parallelThreshold;
+    this.counter = counter;
+  }
+
+  /**
+   * The pool shared by the interceptors that process their batches in parallel, created on first use
+   *
+   * @param parallelism number of threads of the pool if it does not exist yet
+   */
+  static synchronized ForkJoinPool getSharedPool(final int parallelism) {
+
+    if (sharedPool == null) {
+      sharedPool = new ForkJoinPool(parallelism);
+      logger.info("Created the shared Grok pool with {} threads", parallelism);
+    } else if (sharedPool.getParallelism() != parallelism) {
+      logger.warn("The shared Grok pool already has {} threads. Ignoring the requested {}", sharedPool.getParallelism(), parallelism);
+    }
+
+    return sharedPool;
   }
 
   @Override
   public void initialize() {
 
+    if (counter != null) {
+      counter.start();
+    }
   }
 
   @Override
   public Event intercept(Event event) {
 
-    for(GrokHandler grokHandler : grokHandlers) {
-      grokHandler.handleEvent(event);
+    for(GrokSourceHandler sourceHandler : sourceHandlers) {
+      sourceHandler.handleEvent(event);
     }
 
     return event;
@@ -49,7 +123,20 @@ public class GrokInterceptor implements Interceptor {
 
   @Override
   public List<Event> intercept(List<Event> events) {
-    logger.info("Intercepting " + events.size() + " events");
+
+    logger.debug("Intercepting {} events", events.size());
+
+    if (pool != null && events.size() >= parallelThreshold) {
+
+      // The events are modified in place, so the order of the batch stays the same
+      final List<Event> batch = (events instanceof RandomAccess) ? events : new ArrayList<Event>(events);
+      final int taskSize = Math.max(MIN_TASK_SIZE, batch.size() / (pool.getParallelism() * TASKS_PER_THREAD));
+
+      pool.invoke(new InterceptTask(batch, 0, batch.size(), taskSize));
+
+      return events;
+    }
+
     for (Event event : events) {
       intercept(event);
     }
@@ -58,17 +145,103 @@ public class GrokInterceptor implements Interceptor {
 
   @Override
   public void close() {
+
+    if (counter != null) {
+      counter.stop();
+    }
+  }
+
+  /**
+   * Intercepts a range of a batch, splitting it in halves until the ranges are small enough
+   *
+   */
+  private class InterceptTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Event> events;
+    private final int start;
+    private final int end;
+    private final int taskSize;
+
+    private InterceptTask(final List<Event> events, final int start, final int end, final int taskSize) {
+      this.events = events;
+      this.start = start;
+      this.end = end;
+      this.taskSize = taskSize;
+    }
+
+    @Override
+    protected void compute() {
+
+      if (end - start <= taskSize) {
+
+        for (int i = start; i < end; i++) {
+          intercept(events.get(i));
+        }
+
+        return;
+      }
+
+      final int middle = (start + end) >>> 1;
+
+      invokeAll(new InterceptTask(events, start, middle, taskSize), new InterceptTask(events, middle, end, taskSize));
+    }
   }
 
   public static class Builder implements Interceptor.Builder {
 
-    private final List <GrokHandler> grokHandlers = new ArrayList<GrokHandler>();
+    private final List <GrokSourceHandler> sourceHandlers = new ArrayList<GrokSourceHandler>();
+    private boolean parallel = false;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int parallelThreshold = 256;
+    private GrokCounter counter = null;
 
     @Override
     public void configure(Context context) {
 
+      parallel = context.getBoolean(PARALLEL, false);
+      parallelism = context.getInteger(PARALLELISM, Runtime.getRuntime().availableProcessors());
+      parallelThreshold = context.getInteger(PARALLEL_THRESHOLD, 256);
+
+      Preconditions.checkState(parallelism > 0, PARALLELISM + " must be greater than zero");
+      Preconditions.checkState(parallelThreshold > 0, PARALLEL_THRESHOLD + " must be greater than zero");
+
       boolean globalAllowOverrides = false;
       String patternsDirectory = null;
+      final boolean combineEntries = context.getBoolean(COMBINE_ENTRIES, false);
+      final boolean breakOnFirstMatch = context.getBoolean(BREAK_ON_FIRST_MATCH, false);
+      final boolean literalPrefilter = context.getBoolean(LITERAL_PREFILTER, true);
+      final boolean adaptiveOrder = context.getBoolean(ADAPTIVE_ORDER, false);
+      final int adaptiveWindow = context.getInteger(ADAPTIVE_WINDOW, 1000);
+      final Charset charset = Charset.forName(context.getString(CHARSET, EventBodies.DEFAULT_CHARSET.name()));
+      final long matchTimeoutMillis = context.getLong(MATCH_TIMEOUT_MILLIS, 0L);
+      final String timeoutHeader = context.getString(TIMEOUT_HEADER, "grokTimeout");
+      final String typeHintHeader = context.getString(TYPE_HINT_HEADER, GrokFieldTypes.DEFAULT_HEADER);
+      final int resultCacheSize = context.getInteger(RESULT_CACHE_SIZE, 0);
+      final int resultCacheMaxLineLength = context.getInteger(RESULT_CACHE_MAX_LINE_LENGTH, 1024);
+
+      Preconditions.checkState(resultCacheSize >= 0, RESULT_CACHE_SIZE + " must not be negative");
+      Preconditions.checkState(resultCacheMaxLineLength > 0, RESULT_CACHE_MAX_LINE_LENGTH + " must be greater than zero");
+
+      Preconditions.checkState(matchTimeoutMillis >= 0L, MATCH_TIMEOUT_MILLIS + " must not be negative");
+
+      final MatchBudget budget = new MatchBudget(TimeUnit.MILLISECONDS.toNanos(matchTimeoutMillis), timeoutHeader);
+
+      counter = new GrokCounter(context.getString(NAME, defaultName(context)));
+
+      // Each group of entries on a source (each entry without breakOnFirstMatch) gets its own cache of resultCacheSize values
+      final CacheSettings cacheSettings = new CacheSettings(resultCacheSize, resultCacheMaxLineLength);
+
+      // Finding every matching entry takes a scan per entry anyway, so only first matches are combined
+      Preconditions.checkState(!combineEntries || breakOnFirstMatch, COMBINE_ENTRIES + " requires " + BREAK_ON_FIRST_MATCH);
+
+      // Without breakOnFirstMatch every entry is evaluated anyway, and applied in configured order for the overrides
+      Preconditions.checkState(!adaptiveOrder || breakOnFirstMatch, ADAPTIVE_ORDER + " requires " + BREAK_ON_FIRST_MATCH);
+      Preconditions.checkState(adaptiveWindow > 0, ADAPTIVE_WINDOW + " must be greater than zero");
+
+      // Entries are reordered after every window of events, 0 to keep the configured order
+      final int hitRateWindow = adaptiveOrder ? adaptiveWindow : 0;
 
       if (StringUtils.isNotBlank(context.getString(OVERRIDE))) {
         globalAllowOverrides = context.getBoolean(OVERRIDE, false);
@@ -80,18 +253,12 @@ public class GrokInterceptor implements Interceptor {
 
       final GrokProcessor pWithOverride = new GrokProcessorWithOverride();
       final GrokProcessor pWithoutOverride = new GrokProcessorWithoutOverride();
-      final GrokDictionary dictionary = new GrokDictionary();
-
-      // Loads the built in dictionaries from the class path
-      dictionary.addBuiltInDictionaries();
 
-      // Loads any user specified patterns directory
-      if (patternsDirectory != null) {
-        dictionary.addDictionary(new File(patternsDirectory));
-      }
+      // The built in patterns and any user specified patterns directory, shared with the other interceptors
+      final GrokPatterns dictionary = GrokPatterns.forDirectory(patternsDirectory);
 
-      // Finalize the GrokDictionary object used before compiling expressions
-      dictionary.bind();
+      final List <GrokHandler> grokHandlers = new ArrayList<GrokHandler>();
+      final List <String> regexes = new ArrayList<String>();
 
       int currentGrokEntryIndex = 0;
       String currentIndexPrefix = ENTRIES_PREFIX + currentGrokEntryIndex + ".";
@@ -114,9 +281,23 @@ public class GrokInterceptor implements Interceptor {
         final String sourceField = entryContext.getString(SOURCE);
         final String expression = entryContext.getString(EXPRESSION);
 
-        final GrokHandler grokHandler = new GrokHandler(dictionary.compileExpression(expression), sourceField, processor);
+        // With breakOnFirstMatch, consecutive entries on the same source field are handled together, reading the source only
+        // once. Otherwise every entry reads the source again, since an entry with override may rewrite it for the next one
+        if (!grokHandlers.isEmpty() && (!breakOnFirstMatch || !grokHandlers.get(0).getSourceFieldName().equals(sourceField))) {
+          sourceHandlers.add(createSourceHandler(grokHandlers, regexes, combineEntries, breakOnFirstMatch, literalPrefilter, charset, budget,
+              hitRateWindow, cacheSettings));
+          grokHandlers.clear();
+          regexes.clear();
+        }
+
+        final EntryCounter entryCounter = counter.addEntry(ENTRIES_PREFIX + currentGrokEntryIndex);
+        final Map<String, String> declaredTypes = GrokFieldTypes.declaredTypes(expression);
+        final GrokFieldTypes fieldTypes = declaredTypes.isEmpty() ? null : new GrokFieldTypes(typeHintHeader, declaredTypes);
+        final GrokHandler grokHandler = new GrokHandler(dictionary.compileExpression(expression), sourceField, processor, charset,
+            entryCounter, fieldTypes);
 
         grokHandlers.add(grokHandler);
+        regexes.add(dictionary.digestExpression(expression));
 
         // Setting things up for the next iteration
         currentGrokEntryIndex++;
@@ -127,11 +308,89 @@ public class GrokInterceptor implements Interceptor {
       Preconditions.checkState(grokHandlers.size() > 0,
           "GrokInterceptor must have at least one valid entry. Entries are sequentially numbered starting with index 0");
 
+      sourceHandlers.add(createSourceHandler(grokHandlers, regexes, combineEntries, breakOnFirstMatch, literalPrefilter, charset, budget,
+          hitRateWindow, cacheSettings));
+    }
+
+    /**
+     * The name of the metrics of an interceptor that is not given one, the same every time the configuration is
+     * loaded so that the metrics keep their name across reloads: GrokInterceptor- followed by the source fields
+     * of the entries, in entry order and separated by dashes (commas are not allowed in an MBean name)
+     */
+    private static String defaultName(final Context context) {
+
+      final Set<String> sourceFields = new LinkedHashSet<String>();
+
+      for (int i = 0; StringUtils.isNotBlank(context.getString(ENTRIES_PREFIX + i + "." + SOURCE)); i++) {
+        sourceFields.add(context.getString(ENTRIES_PREFIX + i + "." + SOURCE));
+      }
+
+      return "GrokInterceptor-" + StringUtils.join(sourceFields, "-");
+    }
+
+    private GrokSourceHandler createSourceHandler(final List<GrokHandler> grokHandlers, final List<String> regexes,
+        final boolean combineEntries, final boolean breakOnFirstMatch, final boolean literalPrefilter, final Charset charset,
+        final MatchBudget budget, final int hitRateWindow, final CacheSettings cacheSettings) {
+
+      // A single entry gains nothing from being combined
+      final CombinedGrok combinedGrok = (combineEntries && grokHandlers.size() > 1) ? new CombinedGrok(regexes) : null;
+
+      LiteralPrefilter prefilter = null;
+
+      if (literalPrefilter) {
+
+        final List<List<String>> literals = new ArrayList<List<String>>();
+
+        for (String regex : regexes) {
+          literals.add(LiteralPrefilter.requiredLiterals(regex));
+        }
+
+        prefilter = new LiteralPrefilter(literals);
+
+        logger.debug("Required literals of the entries on {}: {}", grokHandlers.get(0).getSourceFieldName(), literals);
+
+        // Expressions without required literals are always evaluated
+        if (!prefilter.isEffective()) {
+          prefilter = null;
+        }
+      }
+
+      // A single entry has nothing to be reordered with
+      final HitRateOrder hitRateOrder = (hitRateWindow > 0 && grokHandlers.size() > 1) ? new HitRateOrder(grokHandlers.size(), hitRateWindow) : null;
+
+      GrokResultCache resultCache = null;
+
+      if (cacheSettings.size > 0) {
+        resultCache = new GrokResultCache(cacheSettings.size, cacheSettings.maxLineLength);
+        counter.addResultCache(resultCache);
+      }
+
+      return new GrokSourceHandler(new ArrayList<GrokHandler>(grokHandlers), combinedGrok, prefilter, breakOnFirstMatch, charset, budget,
+          hitRateOrder, resultCache);
+    }
+
+    /**
+     * Size of the result cache of each group of entries, 0 for no cache
+     */
+    private static class CacheSettings {
+
+      private final int size;
+      private final int maxLineLength;
+
+      private CacheSettings(final int size, final int maxLineLength) {
+        this.size = size;
+        this.maxLineLength = maxLineLength;
+      }
     }
 
     @Override
     public Interceptor build() {
-      return new GrokInterceptor(grokHandlers);
+
+      if (parallel) {
+        return new GrokInterceptor(sourceHandlers, getSharedPool(parallelism), parallelThreshold, counter);
+      }
+
+      return new GrokInterceptor(sourceHandlers, null, 0, counter);
     }
 
   }
@@ -141,11 +400,46 @@ public class GrokInterceptor implements Interceptor {
     private final GrokProcessor processor;
     private final String sourceFieldName;
     private final Grok grok;
+    private final Charset charset;
+    private final EntryCounter counter;
+    private final GrokFieldTypes fieldTypes;
 
     public GrokHandler(Grok grok, String sourceFieldName, GrokProcessor processor) {
+      this(grok, sourceFieldName, processor, EventBodies.DEFAULT_CHARSET, new EntryCounter(sourceFieldName), null);
+    }
+
+    /**
+     * @param charset charset the body is decoded with when it is the source field
+     * @param counter receives the outcome and the time of every evaluation of the expression
+     * @param fieldTypes the declared types of the fields of the expression, or null if it declares none
+     */
+    public GrokHandler(Grok grok, String sourceFieldName, GrokProcessor processor, Charset charset, EntryCounter counter,
+        GrokFieldTypes fieldTypes) {
       this.grok = grok;
       this.sourceFieldName = sourceFieldName;
       this.processor = processor;
+      this.charset = charset;
+      this.counter = counter;
+      this.fieldTypes = fieldTypes;
+    }
+
+    public String getSourceFieldName() {
+      return sourceFieldName;
+    }
+
+    public GrokProcessor getProcessor() {
+      return processor;
+    }
+
+    public EntryCounter getCounter() {
+      return counter;
+    }
+
+    /**
+     * Injects the named groups of a match that was already found
+     */
+    public void inject(final Event event, final Map<String, String> namedGroups) {
+      processor.inject(event, namedGroups, fieldTypes);
     }
 
     /**
@@ -153,20 +447,394 @@ public class GrokInterceptor implements Interceptor {
      *
      * Uses the GrokProcessor to extract
      * @param event
+     * @return true if the expression matched
+     */
+    public boolean handleEvent(final Event event) {
+
+        if (event == null) {
+          return false;
+        }
+
+        final String rawDataInstance = getSourceValue(event, sourceFieldName, charset);
+
+        if (rawDataInstance == null) {
+          return false;
+        }
+
+        return handleValue(event, rawDataInstance);
+    }
+
+    /**
+     * Extracts the named groups from a value already read from the source field
+     *
+     * @param event
+     * @param rawDataInstance value of the source field, possibly wrapped in a BudgetedCharSequence
+     * @return true if the expression matched
+     * @throws BudgetExceededException if the expression ran out of time, which is counted as a timeout
      */
+    public boolean handleValue(final Event event, final CharSequence rawDataInstance) {
+
+      final Map<String, String> namedGroups = extract(rawDataInstance);
+
+      if (namedGroups == null) {
+        return false;
+      }
+
+      inject(event, namedGroups);
+
+      return true;
+    }
+
+    /**
+     * Matches the expression against a value without modifying the event, as the GrokProcessors do before injecting
+     *
+     * @param rawDataInstance value of the source field, possibly wrapped in a BudgetedCharSequence
+     * @return the named groups, or null if the expression did not match
+     * @throws BudgetExceededException if the expression ran out of time, which is counted as a timeout
+     */
+    public Map<String, String> extract(final CharSequence rawDataInstance) {
+
+      final long start = System.nanoTime();
+      final Map<String, String> namedGroups;
+
+      try {
+        namedGroups = grok.extractNamedGroups(rawDataInstance);
+      } catch (BudgetExceededException e) {
+        counter.recordTimeout(System.nanoTime() - start);
+        throw e;
+      }
+
+      if (namedGroups != null) {
+        counter.recordMatch(System.nanoTime() - start);
+      } else {
+        counter.recordMiss(System.nanoTime() - start);
+      }
+
+      return namedGroups;
+    }
+  }
+
+  /**
+   * Handles the consecutive entries that share a source field <p>
+   *
+   * The source field is read once for all of them. Every matching entry is applied in configured order with
+   * its own override setting. With breakOnFirstMatch only the first entry that matches is applied. Without it, the
+   * Builder gives every entry its own handler, so that each entry reads the value the previous ones left in the
+   * source field <p>
+   *
+   * With a LiteralPrefilter, an entry is only evaluated when the source contains every literal its expression requires <p>
+   *
+   * With a CombinedGrok (breakOnFirstMatch only) the entries are matched together in a single scan of the source.
+   * The entry whose match starts earliest in the source is applied, preferring the entry configured first when
+   * several match at the same position. This is the same entry as when they are tried one after the other
+   * whenever the expressions are anchored to the start of the source <p>
+   *
+   * With a MatchBudget, each expression may run for a limited time on a value. An expression that runs out of time
+   * is abandoned for that value, as if it had not matched, and the name of its entry is added to the timeout header.
+   * The other entries are still evaluated. Entries that are combined share a single budget and all time out together.
+   * Their time is split evenly between them in the metrics, and when one of them matches the others count as misses <p>
+   *
+   * With a HitRateOrder (breakOnFirstMatch only) the entries are evaluated, or combined, most frequently matching
+   * first. A value that several entries match then gets the fields of the entry that currently matches most often,
+   * so this is meant for entries that match different kinds of values. Entries that match as often are evaluated
+   * in configured order <p>
+   *
+   * With a GrokResultCache, the named groups the entries extracted from a value are remembered and injected again
+   * when the same value comes back, without evaluating the expressions. The entry metrics only count evaluations,
+   * so they do not include the values answered by the cache. Values on which an entry ran out of time are not cached
+   *
+   */
+  public static class GrokSourceHandler {
+
+    private final String sourceFieldName;
+    private final List <GrokHandler> grokHandlers;
+    private final LiteralPrefilter prefilter;
+    private final boolean breakOnFirstMatch;
+    private final Charset charset;
+    private final MatchBudget budget;
+    private final HitRateOrder hitRateOrder;
+    private final GrokResultCache resultCache;
+
+    /* Replaced when the entries are reordered */
+    private volatile CombinedGrok combinedGrok;
+
+    /**
+     * @param grokHandlers the entries in configured order
+     * @param combinedGrok the expressions of the entries combined, or null to evaluate them one by one
+     * @param prefilter the literals required by the expressions of the entries, or null to evaluate every entry
+     * @param breakOnFirstMatch whether to stop at the first entry that matches, always the case with a combinedGrok
+     * @param charset charset the body is decoded with when it is the source field
+     * @param budget time each expression may take on a value
+     * @param hitRateOrder the order of the entries by recent matches (breakOnFirstMatch only), or null to keep the configured order
+     * @param resultCache the results of recent values, or null to evaluate every value
+     */
+    public GrokSourceHandler(List <GrokHandler> grokHandlers, CombinedGrok combinedGrok, LiteralPrefilter prefilter,
+        boolean breakOnFirstMatch, Charset charset, MatchBudget budget, HitRateOrder hitRateOrder, GrokResultCache resultCache) {
+      this.sourceFieldName = grokHandlers.get(0).getSourceFieldName();
+      this.grokHandlers = grokHandlers;
+      this.combinedGrok = combinedGrok;
+      this.prefilter = prefilter;
+      this.breakOnFirstMatch = breakOnFirstMatch;
+      this.charset = charset;
+      this.budget = budget;
+      this.hitRateOrder = hitRateOrder;
+      this.resultCache = resultCache;
+    }
+
     public void handleEvent(final Event event) {
 
-        final Map <String, String> headers = event.getHeaders();
-        final String rawDataInstance = !sourceFieldName.equals(BODY_FIELD_NAME) ? headers.get(sourceFieldName) : new String(event.getBody());
+      if (event == null) {
+        return;
+      }
+
+      final String rawDataInstance = getSourceValue(event, sourceFieldName, charset);
+
+      if (rawDataInstance == null) {
+        return;
+      }
 
-        if (event == null || rawDataInstance == null) {
+      final boolean cacheable = resultCache != null && resultCache.accepts(rawDataInstance);
+
+      if (cacheable) {
+
+        final GrokResultCache.Result cached = resultCache.get(rawDataInstance);
+
+        if (cached != null) {
+          replay(event, cached);
           return;
         }
+      }
+
+      final GrokResultCache.Result result = cacheable ? new GrokResultCache.Result() : null;
+      final BitSet candidates = (prefilter != null) ? prefilter.candidates(rawDataInstance) : null;
+
+      // The wrapper only slows the matchers down, so it is left out without a time limit
+      final BudgetedCharSequence budgeted = budget.isLimited() ? new BudgetedCharSequence(rawDataInstance) : null;
+      final CharSequence data = (budgeted != null) ? budgeted : rawDataInstance;
+
+      final CombinedGrok combined = combinedGrok;
+      final int matched;
+
+      if (combined == null) {
+        matched = handleSequential(event, data, budgeted, candidates, result);
+      } else {
+        matched = handleCombined(combined, event, data, budgeted, (candidates != null) ? candidates : allEntries(), result);
+      }
+
+      if (result != null && result.isComplete()) {
+        resultCache.put(rawDataInstance, result);
+      }
+
+      recordMatch(matched);
+    }
+
+    /**
+     * Injects the named groups the entries extracted from an earlier event with the same value
+     */
+    private void replay(final Event event, final GrokResultCache.Result cached) {
+
+      final List<CombinedGrok.Match> matches = cached.getMatches();
+
+      for (int i = 0; i < matches.size(); i++) {
+        grokHandlers.get(matches.get(i).getBranch()).inject(event, matches.get(i).getNamedGroups());
+      }
+
+      recordMatch(matches.isEmpty() ? -1 : matches.get(0).getBranch());
+    }
+
+    private void recordMatch(final int matched) {
+
+      if (hitRateOrder != null && hitRateOrder.record(matched) && combinedGrok != null) {
+        reorderCombined();
+      }
+    }
+
+    /**
+     * Evaluates the entries one after the other
+     *
+     * @param result receives the matches, or null
+     * @return the first entry that matched, or -1
+     */
+    private int handleSequential(final Event event, final CharSequence data, final BudgetedCharSequence budgeted, final BitSet candidates,
+        final GrokResultCache.Result result) {
+
+      final int[] order = (hitRateOrder != null) ? hitRateOrder.getOrder() : null;
+      int matched = -1;
+
+      for (int k = 0; k < grokHandlers.size(); k++) {
+
+        final int i = (order != null) ? order[k] : k;
+
+        if (candidates != null && !candidates.get(i)) {
+          continue;
+        }
+
+        if (budgeted != null) {
+          budgeted.start(budget.getNanos());
+        }
+
+        try {
+
+          final Map<String, String> namedGroups = grokHandlers.get(i).extract(data);
+
+          if (namedGroups == null) {
+            continue;
+          }
+
+          grokHandlers.get(i).inject(event, namedGroups);
+
+          if (result != null) {
+            result.addMatch(i, namedGroups);
+          }
+
+          if (breakOnFirstMatch) {
+            return i;
+          }
+
+          if (matched < 0) {
+            matched = i;
+          }
+
+        } catch (BudgetExceededException e) {
+
+          budget.tag(event, grokHandlers.get(i).getCounter().getName());
+
+          if (result != null) {
+            result.setIncomplete();
+          }
+        }
+      }
+
+      return matched;
+    }
+
+    /**
+     * Matches the candidate entries in a single scan
+     *
+     * @param result receives the match, or null
+     * @return the entry that matched, or -1
+     */
+    private int handleCombined(final CombinedGrok combined, final Event event, final CharSequence data,
+        final BudgetedCharSequence budgeted, final BitSet candidates, final GrokResultCache.Result result) {
+
+      if (candidates.isEmpty()) {
+        return -1;
+      }
+
+      if (budgeted != null) {
+        budgeted.start(budget.getNanos());
+      }
+
+      final long start = System.nanoTime();
+      CombinedGrok.Match match = null;
+
+      try {
+        match = combined.match(data, candidates);
+      } catch (BudgetExceededException e) {
+
+        final long share = (System.nanoTime() - start) / candidates.cardinality();
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+          grokHandlers.get(i).getCounter().recordTimeout(share);
+          budget.tag(event, grokHandlers.get(i).getCounter().getName());
+        }
+
+        if (result != null) {
+          result.setIncomplete();
+        }
+
+        return -1;
+      }
+
+      final long share = (System.nanoTime() - start) / candidates.cardinality();
+
+      for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+
+        if (match != null && match.getBranch() == i) {
+          grokHandlers.get(i).getCounter().recordMatch(share);
+        } else {
+          grokHandlers.get(i).getCounter().recordMiss(share);
+        }
+      }
+
+      if (match == null) {
+        return -1;
+      }
+
+      grokHandlers.get(match.getBranch()).inject(event, match.getNamedGroups());
+
+      if (result != null) {
+        result.addMatch(match.getBranch(), match.getNamedGroups());
+      }
+
+      return match.getBranch();
+    }
+
+    /**
+     * Rebuilds the combined expression with its branches in the current order of the entries
+     */
+    private synchronized void reorderCombined() {
+      combinedGrok = combinedGrok.reorder(hitRateOrder.getOrder());
+      logger.debug("Reordered the entries on {}: {}", sourceFieldName, Arrays.toString(hitRateOrder.getOrder()));
+    }
+
+    private BitSet allEntries() {
+
+      final BitSet entries = new BitSet(grokHandlers.size());
+
+      entries.set(0, grokHandlers.size());
+
+      return entries;
+    }
+  }
+
+  /**
+   * Time each expression may spend on a value, and the header that names the entries that ran out of time
+   *
+   */
+  public static class MatchBudget {
+
+    private final long nanos;
+    private final String timeoutHeader;
+
+    /**
+     * @param nanos time each expression may take on a value, 0 for no limit
+     * @param timeoutHeader header that receives the names of the entries that timed out, separated by commas
+     */
+    public MatchBudget(long nanos, String timeoutHeader) {
+      this.nanos = nanos;
+      this.timeoutHeader = timeoutHeader;
+    }
+
+    public boolean isLimited() {
+      return nanos > 0L;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Adds an entry that ran out of time to the timeout header of the event
+     */
+    public void tag(final Event event, final String entryName) {
+
+      final Map<String, String> headers = event.getHeaders();
+      final String timedOut = headers.get(timeoutHeader);
 
-        processor.process(event, grok, rawDataInstance);
+      headers.put(timeoutHeader, (timedOut == null) ? entryName : timedOut + "," + entryName);
     }
   }
 
+  /**
+   * Reads the value of a header or the body of the event, decoded once for all the entries and interceptors
+   *
+   * @return the value or null if the header is missing
+   */
+  private static String getSourceValue(final Event event, final String sourceFieldName, final Charset charset) {
+    return !sourceFieldName.equals(BODY_FIELD_NAME) ? event.getHeaders().get(sourceFieldName) : EventBodies.decode(event, charset);
+  }
+
   /**
    * Extracts Named Groups from Raw Data <p>
    *
@@ -176,14 +844,31 @@ public class GrokInterceptor implements Interceptor {
   public static class GrokProcessorWithOverride implements GrokProcessor {
 
     @Override
-    public void process(final Event event, final Grok expr, final String data) {
-
-      Map <String, String> eventHeaders = event.getHeaders();
+    public boolean process(final Event event, final Grok expr, final CharSequence data, final GrokFieldTypes fieldTypes) {
 
       Map <String, String> namedGroups = expr.extractNamedGroups(data);
 
+      if (namedGroups == null) {
+        return false;
+      }
+
+      inject(event, namedGroups, fieldTypes);
+
+      return true;
+    }
+
+    @Override
+    public void inject(final Event event, final Map<String, String> namedGroups, final GrokFieldTypes fieldTypes) {
+
+      Map <String, String> eventHeaders = event.getHeaders();
+
       for (Map.Entry<String, String> namedGroup : namedGroups.entrySet()) {
+
         eventHeaders.put(namedGroup.getKey(), namedGroup.getValue());
+
+        if (fieldTypes != null) {
+          fieldTypes.annotate(eventHeaders, namedGroup.getKey());
+        }
       }
     }
 
@@ -198,17 +883,33 @@ public class GrokInterceptor implements Interceptor {
   public static class GrokProcessorWithoutOverride implements GrokProcessor {
 
     @Override
-    public void process(final Event event, final Grok expr, final String data) {
-
-      Map <String, String> eventHeaders = event.getHeaders();
+    public boolean process(final Event event, final Grok expr, final CharSequence data, final GrokFieldTypes fieldTypes) {
 
       Map <String, String> namedGroups = expr.extractNamedGroups(data);
 
+      if (namedGroups == null) {
+        return false;
+      }
+
+      inject(event, namedGroups, fieldTypes);
+
+      return true;
+    }
+
+    @Override
+    public void inject(final Event event, final Map<String, String> namedGroups, final GrokFieldTypes fieldTypes) {
+
+      Map <String, String> eventHeaders = event.getHeaders();
+
       for (Map.Entry<String, String> namedGroup : namedGroups.entrySet()) {
 
         if (!eventHeaders.containsKey(namedGroup.getKey())) {
 
           eventHeaders.put(namedGroup.getKey(), namedGroup.getValue());
+
+          if (fieldTypes != null) {
+            fieldTypes.annotate(eventHeaders, namedGroup.getKey());
+          }
         }
       }
     }
@@ -227,8 +928,19 @@ public class GrokInterceptor implements Interceptor {
      * @param event Flume Event
      * @param expr Grok Expression
      * @param data Data to be processed by grok expression
+     * @param fieldTypes the declared types of the fields, recorded in the type hint header for the fields written, or null
+     * @return true if the expression matched the data
+     */
+    public boolean process(final Event event, final Grok expr, final CharSequence data, final GrokFieldTypes fieldTypes);
+
+    /**
+     * Injects named groups that were already extracted in the Event
+     *
+     * @param event Flume Event
+     * @param namedGroups the extracted groups by name
+     * @param fieldTypes the declared types of the fields, recorded in the type hint header for the fields written, or null
      */
-    public void process(final Event event, final Grok expr, final String data);
+    public void inject(final Event event, final Map<String, String> namedGroups, final GrokFieldTypes fieldTypes);
 
   }
 
@@ -245,5 +957,20 @@ public class GrokInterceptor implements Interceptor {
     public static final String OVERRIDE = "override";
     public static final String ENTRIES = "entries";
     public static final String ENTRIES_PREFIX = "entries.";
+    public static final String COMBINE_ENTRIES = "combineEntries";
+    public static final String BREAK_ON_FIRST_MATCH = "breakOnFirstMatch";
+    public static final String LITERAL_PREFILTER = "literalPrefilter";
+    public static final String CHARSET = "charset";
+    public static final String PARALLEL = "parallel";
+    public static final String PARALLELISM = "parallelism";
+    public static final String PARALLEL_THRESHOLD = "parallelThreshold";
+    public static final String MATCH_TIMEOUT_MILLIS = "matchTimeoutMillis";
+    public static final String TIMEOUT_HEADER = "timeoutHeader";
+    public static final String NAME = "name";
+    public static final String ADAPTIVE_ORDER = "adaptiveOrder";
+    public static final String ADAPTIVE_WINDOW = "adaptiveWindow";
+    public static final String TYPE_HINT_HEADER = "typeHintHeader";
+    public static final String RESULT_CACHE_SIZE = "resultCacheSize";
+    public static final String RESULT_CACHE_MAX_LINE_LENGTH = "resultCacheMaxLineLength";
   }
 }
@@ -0,0 +1,243 @@
+package org.apache.flume.interceptor;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aicer.grok.dictionary.GrokDictionary;
+import org.aicer.grok.exception.GrokCompilationException;
+import org.aicer.grok.util.Grok;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared Grok Patterns
+ *
+ * The pattern definitions used by the GrokInterceptors, loaded once per JVM and resolved on demand <p>
+ *
+ * GrokDictionary.bind() expands every definition of the dictionary before the first expression can be compiled,
+ * and every interceptor used to load and bind its own copy. The definitions are loaded here once for the built in
+ * dictionaries and once per patterns directory, and kept until a file of the directory changes. Only the patterns
+ * referenced by the expressions, directly or through other patterns, are expanded, and each only once <p>
+ *
+ * The compiled expressions are shared as well, keyed by their expanded regular expression. A Grok only holds
+ * an immutable Pattern, so the interceptors can match with the same instance from any thread <p>
+ *
+ * Expressions are expanded exactly as GrokDictionary.digestExpression() does: %{NAME} is replaced with the
+ * definition of NAME and %{NAME:field} with a group named field around it. The type of %{NAME:field:type}
+ * is left out of the regular expression (see GrokFieldTypes).
+ *
+ */
+public class GrokPatterns {
+
+  private static final Logger logger = LoggerFactory.getLogger(GrokPatterns.class);
+
+  private static final String REFERENCE_START = "%{";
+  private static final String REFERENCE_END = "}";
+
+  /* Compiled expressions kept at most, more are compiled on every request */
+  private static final int MAX_COMPILED_EXPRESSIONS = 1024;
+
+  /* The built in definitions, the same for every directory */
+  private static Map<String, String> builtInDefinitions = null;
+
+  private static GrokPatterns builtInPatterns = null;
+
+  /* Definitions of each patterns directory, by absolute path */
+  private static final Map<String, GrokPatterns> directoryPatterns = new HashMap<String, GrokPatterns>();
+
+  private static final ConcurrentMap<String, Grok> compiledExpressions = new ConcurrentHashMap<String, Grok>();
+
+  /* The definitions as written, which may reference other patterns */
+  private final Map<String, String> definitions;
+
+  /* Last modification of the patterns directory and its files, 0 for the built in dictionaries */
+  private final long lastModified;
+
+  /* The definitions that have been expanded so far */
+  private final ConcurrentMap<String, String> resolved = new ConcurrentHashMap<String, String>();
+
+  private GrokPatterns(final Map<String, String> definitions, final long lastModified) {
+    this.definitions = definitions;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * The built in patterns, with the patterns of a directory added
+   *
+   * @param patternsDirectory directory of additional pattern definitions, or null for the built in patterns only
+   * @return the patterns, shared with every other caller as long as no file of the directory changes
+   */
+  public static synchronized GrokPatterns forDirectory(final String patternsDirectory) {
+
+    if (builtInDefinitions == null) {
+
+      final GrokDictionary dictionary = new GrokDictionary();
+
+      dictionary.addBuiltInDictionaries();
+
+      builtInDefinitions = Collections.unmodifiableMap(dictionary.getRegexDictionary());
+      builtInPatterns = new GrokPatterns(builtInDefinitions, 0L);
+    }
+
+    if (patternsDirectory == null) {
+      return builtInPatterns;
+    }
+
+    final File directory = new File(patternsDirectory).getAbsoluteFile();
+    final String key = directory.getPath();
+    final long lastModified = lastModified(directory);
+    final GrokPatterns cached = directoryPatterns.get(key);
+
+    if (cached != null && cached.lastModified == lastModified) {
+      return cached;
+    }
+
+    // The directory definitions take precedence over the built in ones, as when they are added to a GrokDictionary
+    final GrokDictionary dictionary = new GrokDictionary();
+
+    dictionary.addDictionary(directory);
+
+    final Map<String, String> definitions = new HashMap<String, String>(builtInDefinitions);
+
+    definitions.putAll(dictionary.getRegexDictionary());
+
+    final GrokPatterns patterns = new GrokPatterns(Collections.unmodifiableMap(definitions), lastModified);
+
+    directoryPatterns.put(key, patterns);
+
+    logger.info("Loaded the Grok patterns of {} ({} definitions)", key, definitions.size());
+
+    return patterns;
+  }
+
+  /**
+   * Latest modification time of a file or directory and everything below it
+   */
+  private static long lastModified(final File file) {
+
+    long lastModified = file.lastModified();
+
+    if (file.isDirectory()) {
+
+      final File[] children = file.listFiles();
+
+      if (children != null) {
+        for (File child : children) {
+          lastModified = Math.max(lastModified, lastModified(child));
+        }
+      }
+    }
+
+    return lastModified;
+  }
+
+  /**
+   * Number of pattern definitions
+   */
+  public int getDefinitionCount() {
+    return definitions.size();
+  }
+
+  /**
+   * Expands the patterns an expression references into a regular expression
+   *
+   * @param expression the Grok expression
+   * @return the regular expression, with a named group for every %{NAME:field}
+   * @throws GrokCompilationException if a pattern is not defined or references itself
+   */
+  public String digestExpression(final String expression) {
+    return digest(expression, new HashSet<String>());
+  }
+
+  /**
+   * Compiles an expression, or returns the instance compiled earlier for the same regular expression
+   *
+   * @param expression the Grok expression
+   * @throws GrokCompilationException if a pattern is not defined or references itself
+   */
+  public Grok compileExpression(final String expression) {
+
+    final String regex = digestExpression(expression);
+    final Grok cached = compiledExpressions.get(regex);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    logger.debug("Digested [{}] into [{}] before compilation", expression, regex);
+
+    final Grok grok = new Grok(com.google.code.regexp.Pattern.compile(regex));
+
+    if (compiledExpressions.size() < MAX_COMPILED_EXPRESSIONS) {
+      compiledExpressions.putIfAbsent(regex, grok);
+    }
+
+    return grok;
+  }
+
+  /**
+   * Replaces the references of an expression, the first one first, until there are none left
+   *
+   * @param resolving the patterns being expanded by the callers, to detect definitions that reference themselves
+   */
+  private String digest(final String expression, final Set<String> resolving) {
+
+    String digested = expression;
+
+    while (true) {
+
+      final int start = digested.indexOf(REFERENCE_START);
+      final int end = (start < 0) ? -1 : digested.indexOf(REFERENCE_END, start + REFERENCE_START.length());
+
+      if (end < 0) {
+        return digested;
+      }
+
+      final String reference = digested.substring(start + REFERENCE_START.length(), end);
+      final int separator = reference.indexOf(':');
+      final String name = (separator < 0) ? reference : reference.substring(0, separator);
+      final String field = (separator < 0) ? null : StringUtils.substringBefore(reference.substring(separator + 1), ":");
+      final String value = resolve(name, resolving);
+
+      final String replacement = (field != null) ? "(?<" + field + ">" + value + ")" : value;
+
+      digested = new StringBuilder(digested).replace(start, end + REFERENCE_END.length(), replacement).toString();
+    }
+  }
+
+  /**
+   * The expanded definition of a pattern, expanded the first time it is needed
+   */
+  private String resolve(final String name, final Set<String> resolving) {
+
+    final String cached = resolved.get(name);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    final String definition = definitions.get(name);
+
+    if (definition == null) {
+      throw new GrokCompilationException("Missing value for regex name : " + name);
+    }
+
+    if (!resolving.add(name)) {
+      throw new GrokCompilationException("The definition of regex name " + name + " references itself");
+    }
+
+    final String value = digest(definition, resolving);
+
+    resolving.remove(name);
+    resolved.putIfAbsent(name, value);
+
+    return value;
+  }
+}
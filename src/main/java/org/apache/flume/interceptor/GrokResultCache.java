@@ -0,0 +1,149 @@
+package org.apache.flume.interceptor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.interceptor.CombinedGrok.Match;
+
+/**
+ * Grok Result Cache
+ *
+ * Remembers what the entries of a GrokSourceHandler extracted from recent source values, so that identical
+ * lines (health checks, heartbeats, ...) are answered with a lookup instead of the regular expressions <p>
+ *
+ * The cache is split into segments by the hash of the value, each a small LRU map under its own lock, so
+ * that threads processing a batch in parallel rarely wait for each other. The values are compared in full,
+ * so two lines with the same hash never share a result <p>
+ *
+ * Values longer than the maximum line length are neither looked up nor cached, and do not count as misses.
+ *
+ */
+public class GrokResultCache {
+
+  /* Number of segments, a power of two */
+  private static final int SEGMENTS = 16;
+
+  private final int maxLineLength;
+
+  private final List<Map<String, Result>> segments = new ArrayList<Map<String, Result>>(SEGMENTS);
+
+  private final AtomicLong hitCount = new AtomicLong(0L);
+
+  private final AtomicLong missCount = new AtomicLong(0L);
+
+  /**
+   * @param maxEntries number of values remembered, spread over the segments
+   * @param maxLineLength length of the longest value that is cached
+   */
+  public GrokResultCache(final int maxEntries, final int maxLineLength) {
+
+    this.maxLineLength = maxLineLength;
+
+    final int segmentEntries = Math.max(1, maxEntries / SEGMENTS);
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments.add(new LinkedHashMap<String, Result>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Result> eldest) {
+          return size() > segmentEntries;
+        }
+      });
+    }
+  }
+
+  /**
+   * Whether a value is short enough to be cached
+   */
+  public boolean accepts(final String value) {
+    return value.length() <= maxLineLength;
+  }
+
+  /**
+   * The result remembered for a value
+   *
+   * @param value the source value, which must be accepted
+   * @return the result, or null if the value was not seen recently
+   */
+  public Result get(final String value) {
+
+    final Map<String, Result> segment = segment(value);
+    final Result result;
+
+    synchronized (segment) {
+      result = segment.get(value);
+    }
+
+    if (result == null) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.incrementAndGet();
+    }
+
+    return result;
+  }
+
+  /**
+   * Remembers the result for a value
+   *
+   * @param value the source value, which must be accepted
+   * @param result what the entries extracted from the value, which must no longer be modified
+   */
+  public void put(final String value, final Result result) {
+
+    final Map<String, Result> segment = segment(value);
+
+    synchronized (segment) {
+      segment.put(value, result);
+    }
+  }
+
+  private Map<String, Result> segment(final String value) {
+
+    final int hash = value.hashCode();
+
+    return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * The entries that matched a value, in the order they were applied, with the named groups they extracted. Shared
+   * by the events with the same value once cached, so neither the matches nor their groups may be modified
+   *
+   */
+  public static class Result {
+
+    private final List<Match> matches = new ArrayList<Match>(1);
+
+    /* Cleared when an entry ran out of time, since another attempt may finish */
+    private boolean complete = true;
+
+    public void addMatch(final int entry, final Map<String, String> namedGroups) {
+      matches.add(new Match(entry, namedGroups));
+    }
+
+    public void setIncomplete() {
+      complete = false;
+    }
+
+    public boolean isComplete() {
+      return complete;
+    }
+
+    public List<Match> getMatches() {
+      return matches;
+    }
+  }
+}
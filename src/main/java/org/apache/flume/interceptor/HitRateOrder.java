@@ -0,0 +1,124 @@
+package org.apache.flume.interceptor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit Rate Order
+ *
+ * Orders the entries of a GrokSourceHandler, or the date formats of a DateInterceptor, by how often they matched
+ * recently, the most frequent first <p>
+ *
+ * The matches are counted over a window of events. At the end of every window the entries are sorted by their
+ * matches in the last two windows, which approximates a sliding window of one to two windows of events without
+ * keeping every outcome. Entries with the same count keep their configured order, so the configured order
+ * stands until the counts show otherwise <p>
+ *
+ * Recording is lock free. The counts of the events recorded while a window is being closed may land in either
+ * window, which does not matter for an ordering heuristic.
+ *
+ */
+public class HitRateOrder {
+
+  private final int entryCount;
+
+  private final long window;
+
+  /* Matches per entry in the current window */
+  private final AtomicIntegerArray currentHits;
+
+  /* Matches per entry in the previous window */
+  private int[] previousHits;
+
+  private final AtomicLong events = new AtomicLong(0L);
+
+  /* Entries in evaluation order */
+  private volatile int[] order;
+
+  /**
+   * @param entryCount number of entries
+   * @param window number of events between two reorderings
+   */
+  public HitRateOrder(final int entryCount, final int window) {
+
+    this.entryCount = entryCount;
+    this.window = window;
+    this.currentHits = new AtomicIntegerArray(entryCount);
+    this.previousHits = new int[entryCount];
+    this.order = new int[entryCount];
+
+    for (int i = 0; i < entryCount; i++) {
+      order[i] = i;
+    }
+  }
+
+  /**
+   * The entries in the order they should be evaluated. The array must not be modified
+   */
+  public int[] getOrder() {
+    return order;
+  }
+
+  /**
+   * Records the outcome of an event
+   *
+   * @param entry the entry that matched, or -1 if none did
+   * @return true if the event closed a window and the order of the entries changed
+   */
+  public boolean record(final int entry) {
+
+    if (entry >= 0) {
+      currentHits.incrementAndGet(entry);
+    }
+
+    if (events.incrementAndGet() % window != 0L) {
+      return false;
+    }
+
+    return reorder();
+  }
+
+  private synchronized boolean reorder() {
+
+    final int[] hits = new int[entryCount];
+    final Integer[] entries = new Integer[entryCount];
+
+    for (int i = 0; i < entryCount; i++) {
+      hits[i] = currentHits.getAndSet(i, 0);
+      entries[i] = i;
+    }
+
+    final int[] totals = new int[entryCount];
+
+    for (int i = 0; i < entryCount; i++) {
+      totals[i] = hits[i] + previousHits[i];
+    }
+
+    previousHits = hits;
+
+    // The sort is stable, so entries with as many matches stay in configured order
+    Arrays.sort(entries, new Comparator<Integer>() {
+
+      @Override
+      public int compare(final Integer left, final Integer right) {
+        return totals[right] - totals[left];
+      }
+    });
+
+    final int[] newOrder = new int[entryCount];
+
+    for (int i = 0; i < entryCount; i++) {
+      newOrder[i] = entries[i];
+    }
+
+    if (Arrays.equals(newOrder, order)) {
+      return false;
+    }
+
+    order = newOrder;
+
+    return true;
+  }
+}
@@ -0,0 +1,55 @@
+package org.apache.flume.interceptor;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of an interceptor, published over JMX as org.apache.flume.interceptor:type=name <p>
+ *
+ * MonitoredCounterGroup registers its MBean on start() but never unregisters it, and Flume builds the interceptors
+ * again on every configuration reload. The MBean is unregistered on stop(), so that the counter of the rebuilt
+ * interceptor can register under the same name instead of leaving the old counters in its place
+ *
+ */
+public abstract class InterceptorCounterGroup extends MonitoredCounterGroup {
+
+  private static final Logger logger = LoggerFactory.getLogger(InterceptorCounterGroup.class);
+
+  private final String name;
+
+  protected InterceptorCounterGroup(final String name) {
+    super(Type.INTERCEPTOR, name);
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void stop() {
+
+    super.stop();
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    try {
+
+      final ObjectName objectName = new ObjectName("org.apache.flume." + Type.INTERCEPTOR.name().toLowerCase() + ":type=" + name);
+
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+
+    } catch (JMException e) {
+      logger.warn("Unable to unregister the metrics of interceptor " + name, e);
+    }
+  }
+}
@@ -0,0 +1,665 @@
+package org.apache.flume.interceptor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * Literal Prefilter
+ *
+ * Tells which of several regular expressions can possibly match an input by looking for the literals each
+ * of them requires <p>
+ *
+ * The required literals of an expression are the runs of plain characters that every match must contain:
+ * anything optional, repeated from zero, inside an alternation or inside a lookaround is left out, so an
+ * expression is never ruled out wrongly. Expressions with case insensitive or comments flags, and expressions
+ * without any long enough literal, are always candidates <p>
+ *
+ * All the literals are searched for in a single pass over the input with an Aho-Corasick automaton, built
+ * as a transition table over the characters that occur in the literals.
+ *
+ */
+public class LiteralPrefilter {
+
+  /* Shorter literals are found in almost every input and only slow the pass down */
+  private static final int MIN_LITERAL_LENGTH = 3;
+
+  /* The longest literals of an expression are the most selective, the others are dropped */
+  private static final int MAX_LITERALS = 4;
+
+  private final int expressionCount;
+
+  /* Per expression, the ids of the literals it requires */
+  private final int[][] expressionLiterals;
+
+  private final int literalCount;
+
+  /* Characters occurring in the literals, sorted */
+  private final char[] alphabet;
+
+  /* Position in the alphabet of the ASCII characters, -1 when not in it */
+  private final int[] asciiIndex = new int[128];
+
+  /* Next state per state and alphabet position */
+  private final int[][] transitions;
+
+  /* Per state, the ids of the literals ending there */
+  private final int[][] outputs;
+
+  /**
+   * @param literals per expression, the literals it requires
+   */
+  public LiteralPrefilter(final List<List<String>> literals) {
+
+    this.expressionCount = literals.size();
+    this.expressionLiterals = new int[expressionCount][];
+
+    final Map<String, Integer> literalIds = new LinkedHashMap<String, Integer>();
+    final TreeSet<Character> characters = new TreeSet<Character>();
+
+    for (int expression = 0; expression < expressionCount; expression++) {
+
+      final List<String> required = literals.get(expression);
+
+      expressionLiterals[expression] = new int[required.size()];
+
+      for (int i = 0; i < required.size(); i++) {
+
+        final String literal = required.get(i);
+        Integer id = literalIds.get(literal);
+
+        if (id == null) {
+          id = literalIds.size();
+          literalIds.put(literal, id);
+        }
+
+        expressionLiterals[expression][i] = id;
+
+        for (int c = 0; c < literal.length(); c++) {
+          characters.add(literal.charAt(c));
+        }
+      }
+    }
+
+    this.literalCount = literalIds.size();
+    this.alphabet = new char[characters.size()];
+
+    int index = 0;
+
+    for (Character c : characters) {
+      alphabet[index++] = c;
+    }
+
+    Arrays.fill(asciiIndex, -1);
+
+    for (int i = 0; i < alphabet.length && alphabet[i] < 128; i++) {
+      asciiIndex[alphabet[i]] = i;
+    }
+
+    // Trie of the literals
+    final List<int[]> children = new ArrayList<int[]>();
+    final List<List<Integer>> endings = new ArrayList<List<Integer>>();
+
+    children.add(newChildren());
+    endings.add(new ArrayList<Integer>());
+
+    for (Map.Entry<String, Integer> literal : literalIds.entrySet()) {
+
+      int state = 0;
+
+      for (int c = 0; c < literal.getKey().length(); c++) {
+
+        final int symbol = symbol(literal.getKey().charAt(c));
+
+        if (children.get(state)[symbol] < 0) {
+          children.get(state)[symbol] = children.size();
+          children.add(newChildren());
+          endings.add(new ArrayList<Integer>());
+        }
+
+        state = children.get(state)[symbol];
+      }
+
+      endings.get(state).add(literal.getValue());
+    }
+
+    // Failure links in breadth first order turn the trie into a complete transition table
+    final int stateCount = children.size();
+    final int[] failure = new int[stateCount];
+    final Queue<Integer> queue = new ArrayDeque<Integer>();
+
+    this.transitions = new int[stateCount][];
+    this.outputs = new int[stateCount][];
+
+    transitions[0] = new int[alphabet.length];
+
+    for (int symbol = 0; symbol < alphabet.length; symbol++) {
+
+      final int child = children.get(0)[symbol];
+
+      if (child > 0) {
+        transitions[0][symbol] = child;
+        queue.add(child);
+      }
+    }
+
+    outputs[0] = new int[0];
+
+    while (!queue.isEmpty()) {
+
+      final int state = queue.remove();
+
+      transitions[state] = new int[alphabet.length];
+
+      final List<Integer> stateOutputs = new ArrayList<Integer>(endings.get(state));
+
+      for (int id : outputs[failure[state]]) {
+        stateOutputs.add(id);
+      }
+
+      outputs[state] = toArray(stateOutputs);
+
+      for (int symbol = 0; symbol < alphabet.length; symbol++) {
+
+        final int child = children.get(state)[symbol];
+
+        if (child > 0) {
+          failure[child] = transitions[failure[state]][symbol];
+          transitions[state][symbol] = child;
+          queue.add(child);
+        } else {
+          transitions[state][symbol] = transitions[failure[state]][symbol];
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether any expression requires a literal, otherwise every expression is always a candidate
+   */
+  public boolean isEffective() {
+    return literalCount > 0;
+  }
+
+  /**
+   * Finds the expressions that can match the input
+   *
+   * @param input the data the expressions are going to be matched against
+   * @return the indexes of the expressions whose literals all occur in the input
+   */
+  public BitSet candidates(final CharSequence input) {
+
+    final boolean[] found = new boolean[literalCount];
+    final int length = input.length();
+
+    int missing = literalCount;
+    int state = 0;
+
+    for (int i = 0; i < length && missing > 0; i++) {
+
+      final char c = input.charAt(i);
+      final int symbol = (c < 128) ? asciiIndex[c] : Arrays.binarySearch(alphabet, c);
+
+      if (symbol < 0) {
+        // No literal contains the character
+        state = 0;
+        continue;
+      }
+
+      state = transitions[state][symbol];
+
+      for (int id : outputs[state]) {
+        if (!found[id]) {
+          found[id] = true;
+          missing--;
+        }
+      }
+    }
+
+    final BitSet candidates = new BitSet(expressionCount);
+
+    for (int expression = 0; expression < expressionCount; expression++) {
+
+      boolean candidate = true;
+
+      for (int id : expressionLiterals[expression]) {
+        if (!found[id]) {
+          candidate = false;
+          break;
+        }
+      }
+
+      candidates.set(expression, candidate);
+    }
+
+    return candidates;
+  }
+
+  private int[] newChildren() {
+
+    final int[] result = new int[alphabet.length];
+
+    Arrays.fill(result, -1);
+
+    return result;
+  }
+
+  private int symbol(final char c) {
+    return (c < 128) ? asciiIndex[c] : Arrays.binarySearch(alphabet, c);
+  }
+
+  private static int[] toArray(final List<Integer> values) {
+
+    final int[] result = new int[values.size()];
+
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+
+    return result;
+  }
+
+  /**
+   * Finds literals that every match of a regular expression contains
+   *
+   * @param regex the digested expression
+   * @return the most selective required literals, empty if none are known
+   */
+  public static List<String> requiredLiterals(final String regex) {
+
+    final LiteralParser parser = new LiteralParser(regex);
+    final List<String> literals = parser.parseSequence();
+
+    if (parser.unsupported || parser.position < regex.length()) {
+      return Collections.emptyList();
+    }
+
+    // Literals within longer literals add nothing
+    final List<String> selective = new ArrayList<String>();
+
+    Collections.sort(literals, new Comparator<String>() {
+      @Override
+      public int compare(final String a, final String b) {
+        return b.length() - a.length();
+      }
+    });
+
+    for (String literal : literals) {
+
+      boolean contained = false;
+
+      for (String longer : selective) {
+        if (longer.contains(literal)) {
+          contained = true;
+          break;
+        }
+      }
+
+      if (!contained && selective.size() < MAX_LITERALS) {
+        selective.add(literal);
+      }
+    }
+
+    return selective;
+  }
+
+  /**
+   * Recursive descent over the syntax of java.util.regex.Pattern, collecting required literals
+   */
+  private static final class LiteralParser {
+
+    private static final Map<Character, Character> ESCAPED_CHARACTERS = new HashMap<Character, Character>();
+
+    static {
+      ESCAPED_CHARACTERS.put('t', '\t');
+      ESCAPED_CHARACTERS.put('n', '\n');
+      ESCAPED_CHARACTERS.put('r', '\r');
+      ESCAPED_CHARACTERS.put('f', '\f');
+      ESCAPED_CHARACTERS.put('a', '\u0007');
+      ESCAPED_CHARACTERS.put('e', '\u001B');
+    }
+
+    private final String regex;
+
+    private int position = 0;
+
+    /* Set when the expression uses something that changes how literals match */
+    private boolean unsupported = false;
+
+    /* Whether the last quantifier allows more than its minimum */
+    private boolean repeated = false;
+
+    private LiteralParser(final String regex) {
+      this.regex = regex;
+    }
+
+    /**
+     * Parses up to the end of the enclosing group
+     *
+     * @return the literals required by the sequence, empty if it contains an alternation
+     */
+    private List<String> parseSequence() {
+
+      final List<String> literals = new ArrayList<String>();
+      final StringBuilder run = new StringBuilder();
+
+      boolean alternation = false;
+
+      while (position < regex.length() && !unsupported) {
+
+        final char c = regex.charAt(position);
+
+        if (c == ')') {
+          break;
+        }
+
+        if (c == '|') {
+          alternation = true;
+          flush(run, literals);
+          position++;
+          continue;
+        }
+
+        if (c == '(') {
+
+          flush(run, literals);
+
+          final List<String> groupLiterals = parseGroup();
+
+          if (quantifier() > 0) {
+            literals.addAll(groupLiterals);
+          }
+
+          continue;
+        }
+
+        if (c == '[') {
+          skipClass();
+          quantifier();
+          flush(run, literals);
+          continue;
+        }
+
+        if (c == '\\') {
+
+          position++;
+
+          if (position >= regex.length()) {
+            break;
+          }
+
+          final char escaped = regex.charAt(position++);
+
+          if (escaped == 'Q') {
+
+            final int end = regex.indexOf("\\E", position);
+            final String quoted = regex.substring(position, (end < 0) ? regex.length() : end);
+
+            position = (end < 0) ? regex.length() : end + 2;
+
+            if (quoted.length() > 0) {
+              run.append(quoted, 0, quoted.length() - 1);
+              literal(quoted.charAt(quoted.length() - 1), run, literals);
+            }
+
+          } else if (ESCAPED_CHARACTERS.containsKey(escaped)) {
+            literal(ESCAPED_CHARACTERS.get(escaped), run, literals);
+          } else if (!Character.isLetterOrDigit(escaped)) {
+            literal(escaped, run, literals);
+          } else {
+            skipEscapeArguments(escaped);
+            quantifier();
+            flush(run, literals);
+          }
+
+          continue;
+        }
+
+        position++;
+
+        if (c == '.' || c == '^' || c == '$') {
+          quantifier();
+          flush(run, literals);
+        } else {
+          literal(c, run, literals);
+        }
+      }
+
+      flush(run, literals);
+
+      return alternation ? new ArrayList<String>() : literals;
+    }
+
+    /**
+     * Parses a group starting at its opening parenthesis, up to and including the closing one
+     *
+     * @return the literals the group requires
+     */
+    private List<String> parseGroup() {
+
+      position++;
+
+      boolean lookaround = false;
+
+      if (position < regex.length() && regex.charAt(position) == '?') {
+
+        position++;
+
+        final char kind = (position < regex.length()) ? regex.charAt(position) : ')';
+
+        if (kind == '=' || kind == '!') {
+          lookaround = true;
+          position++;
+        } else if (kind == '<' && position + 1 < regex.length()
+            && (regex.charAt(position + 1) == '=' || regex.charAt(position + 1) == '!')) {
+          lookaround = true;
+          position += 2;
+        } else if (kind == '<') {
+          position = regex.indexOf('>', position) + 1;
+        } else if (kind == ':' || kind == '>') {
+          position++;
+        } else {
+
+          // Flags, either for the rest of the enclosing group or for a group of their own
+          while (position < regex.length() && regex.charAt(position) != ':' && regex.charAt(position) != ')') {
+
+            final char flag = regex.charAt(position++);
+
+            if (flag == 'i' || flag == 'x') {
+              unsupported = true;
+            }
+          }
+
+          if (position < regex.length() && regex.charAt(position) == ')') {
+            position++;
+            return new ArrayList<String>();
+          }
+
+          position++;
+        }
+      }
+
+      if (position <= 0) {
+        unsupported = true;
+        return new ArrayList<String>();
+      }
+
+      final List<String> literals = parseSequence();
+
+      if (position >= regex.length()) {
+        unsupported = true;
+        return new ArrayList<String>();
+      }
+
+      // Closing parenthesis
+      position++;
+
+      return lookaround ? new ArrayList<String>() : literals;
+    }
+
+    /**
+     * Adds a plain character to the current run, depending on how it is quantified
+     */
+    private void literal(final char c, final StringBuilder run, final List<String> literals) {
+
+      final int minimum = quantifier();
+
+      if (minimum == 0) {
+        flush(run, literals);
+        return;
+      }
+
+      run.append(c);
+
+      if (minimum > 1 || repeated) {
+        flush(run, literals);
+      }
+    }
+
+    /**
+     * Consumes the quantifier following an atom, if any
+     *
+     * @return the minimum number of repetitions, 1 without a quantifier
+     */
+    private int quantifier() {
+
+      repeated = false;
+
+      if (position >= regex.length()) {
+        return 1;
+      }
+
+      final char c = regex.charAt(position);
+      int minimum = 1;
+
+      if (c == '?' || c == '*') {
+        minimum = 0;
+        repeated = true;
+        position++;
+      } else if (c == '+') {
+        repeated = true;
+        position++;
+      } else if (c == '{') {
+
+        final int end = regex.indexOf('}', position);
+
+        if (end < 0) {
+          unsupported = true;
+          return 1;
+        }
+
+        final String bounds = regex.substring(position + 1, end);
+        final int comma = bounds.indexOf(',');
+
+        try {
+          minimum = Integer.parseInt((comma < 0) ? bounds.trim() : bounds.substring(0, comma).trim());
+        } catch (NumberFormatException e) {
+          unsupported = true;
+          return 1;
+        }
+
+        repeated = comma >= 0 || minimum != 1;
+        position = end + 1;
+
+      } else {
+        return 1;
+      }
+
+      // Lazy and possessive modifiers
+      if (position < regex.length() && (regex.charAt(position) == '?' || regex.charAt(position) == '+')) {
+        position++;
+      }
+
+      return minimum;
+    }
+
+    private void skipClass() {
+
+      int depth = 0;
+
+      do {
+
+        final char c = regex.charAt(position);
+
+        if (c == '\\') {
+          position += 2;
+          continue;
+        }
+
+        if (c == '[') {
+
+          depth++;
+          position++;
+
+          // A closing bracket right at the start of a class is a literal
+          if (position < regex.length() && regex.charAt(position) == '^') {
+            position++;
+          }
+
+          if (position < regex.length() && regex.charAt(position) == ']') {
+            position++;
+          }
+
+          continue;
+        }
+
+        if (c == ']') {
+          depth--;
+        }
+
+        position++;
+
+      } while (depth > 0 && position < regex.length());
+
+      if (depth > 0) {
+        unsupported = true;
+      }
+    }
+
+    /**
+     * Skips what follows escapes such as \p{Alpha}, \x41 or \k&lt;name&gt;
+     */
+    private void skipEscapeArguments(final char escaped) {
+
+      if ((escaped == 'p' || escaped == 'P' || escaped == 'x' || escaped == 'N')
+          && position < regex.length() && regex.charAt(position) == '{') {
+        position = regex.indexOf('}', position) + 1;
+      } else if (escaped == 'p' || escaped == 'P' || escaped == 'c') {
+        position++;
+      } else if (escaped == 'x') {
+        position += 2;
+      } else if (escaped == 'u') {
+        position += 4;
+      } else if (escaped == 'k' && position < regex.length() && regex.charAt(position) == '<') {
+        position = regex.indexOf('>', position) + 1;
+      } else if (escaped == '0' || Character.isDigit(escaped)) {
+        while (position < regex.length() && Character.isDigit(regex.charAt(position))) {
+          position++;
+        }
+      }
+
+      if (position <= 0 || position > regex.length()) {
+        unsupported = true;
+        position = regex.length();
+      }
+    }
+
+    private static void flush(final StringBuilder run, final List<String> literals) {
+
+      if (run.length() >= MIN_LITERAL_LENGTH) {
+        literals.add(run.toString());
+      }
+
+      run.setLength(0);
+    }
+  }
+}
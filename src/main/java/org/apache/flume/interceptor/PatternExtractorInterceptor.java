@@ -4,6 +4,9 @@ import static org.apache.flume.interceptor.PatternExtractorInterceptor.Constants
 import static org.apache.flume.interceptor.PatternExtractorInterceptor.Constants.SOURCE;
 import static org.apache.flume.interceptor.PatternExtractorInterceptor.Constants.PATTERN;
 import static org.apache.flume.interceptor.PatternExtractorInterceptor.Constants.BODY_SOURCE;
+import static org.apache.flume.interceptor.PatternExtractorInterceptor.Constants.CHARSET;
+
+import java.nio.charset.Charset;
 
 import java.util.List;
 import java.util.regex.Matcher;
@@ -21,11 +24,13 @@ public class PatternExtractorInterceptor implements Interceptor {
   private final Pattern pattern;
   private final String source;
   private final String destination;
+  private final Charset charset;
 
-  private PatternExtractorInterceptor(final Pattern pattern, final String source, final String destination) {
+  private PatternExtractorInterceptor(final Pattern pattern, final String source, final String destination, final Charset charset) {
     this.pattern = pattern;
     this.source = source;
     this.destination = destination;
+    this.charset = charset;
   }
 
   @Override
@@ -57,12 +62,12 @@ public class PatternExtractorInterceptor implements Interceptor {
     String extractedValue = "";
 
     if (source.equals(BODY_SOURCE)) {
-      sourceString = new String(event.getBody());
+      sourceString = EventBodies.decode(event, charset);
     } else {
       sourceString = event.getHeaders().get(source);
     }
 
-    if (sourceString.length() > 0) {
+    if (sourceString != null && sourceString.length() > 0) {
       final Matcher matcher = pattern.matcher(sourceString);
       if (matcher.find()) {
         extractedValue = sourceString.substring(matcher.start(), matcher.end());
@@ -78,12 +83,17 @@ public class PatternExtractorInterceptor implements Interceptor {
     private Pattern pattern = null;
     private String destination = null;
     private String source = null;
+    private Charset charset = EventBodies.DEFAULT_CHARSET;
 
     @Override
     public void configure(Context context) {
 
       String regexPattern = null;
 
+      if (StringUtils.isNotBlank(context.getString(CHARSET))) {
+          charset = Charset.forName(context.getString(CHARSET));
+      }
+
       if (StringUtils.isNotBlank(context.getString(PATTERN))) {
           regexPattern = context.getString(PATTERN);
           pattern = Pattern.compile(regexPattern);
@@ -112,7 +122,7 @@ public class PatternExtractorInterceptor implements Interceptor {
      */
     @Override
     public Interceptor build() {
-      return new PatternExtractorInterceptor(pattern, source, destination);
+      return new PatternExtractorInterceptor(pattern, source, destination, charset);
     }
   }
 
@@ -121,6 +131,7 @@ public class PatternExtractorInterceptor implements Interceptor {
     public static final String DESTINATION  = "destination";
     public static final String SOURCE  = "source";
     public static final String BODY_SOURCE  = "body";
+    public static final String CHARSET  = "charset";
   }
 
 }
@@ -1,20 +1,29 @@
 package org.apache.flume.sink.elasticsearch.http;
 
+import static org.apache.flume.sink.elasticsearch.http.ElasticSearchHTTPSinkConstants.BODY_CHARSET_KEY;
 import static org.apache.flume.sink.elasticsearch.http.ElasticSearchHTTPSinkConstants.BODY_FIELDNAME_KEY;
 import static org.apache.flume.sink.elasticsearch.http.ElasticSearchHTTPSinkConstants.DEFAULT_BODY_FIELDNAME;
+import static org.apache.flume.sink.elasticsearch.http.ElasticSearchHTTPSinkConstants.TYPE_HINT_HEADER_KEY;
 
+import java.nio.charset.Charset;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.interceptor.EventBodies;
+import org.apache.flume.interceptor.GrokFieldTypes;
 
 import com.google.gson.JsonObject;
 
 /**
  * ElasticSearch HTTP Dynamic Event Serializer
  *
- * Makes a best effort to serialize the events to the appropriate JSON types
+ * Makes a best effort to serialize the events to the appropriate JSON types <p>
+ *
+ * Fields listed in the type hint header written by the GrokInterceptor are serialized with their declared type
+ * (int and long as integers, float as a number, bool as a boolean) without guessing. The hint header itself is
+ * not serialized, and a value that does not parse as its declared type falls back to guessing
  *
  * @author Israel Ekpo
  */
@@ -22,12 +31,24 @@ public class ElasticSearchHTTPDynamicEventSerializer implements ElasticSearchHTT
 
   private String bodyFieldName = DEFAULT_BODY_FIELDNAME;
 
+  private Charset bodyCharset = EventBodies.DEFAULT_CHARSET;
+
+  private String typeHintHeader = GrokFieldTypes.DEFAULT_HEADER;
+
   @Override
   public void configure(Context context) {
 
     if (StringUtils.isNotBlank(context.getString(BODY_FIELDNAME_KEY))) {
       bodyFieldName = context.getString(BODY_FIELDNAME_KEY);
     }
+
+    if (StringUtils.isNotBlank(context.getString(BODY_CHARSET_KEY))) {
+      bodyCharset = Charset.forName(context.getString(BODY_CHARSET_KEY));
+    }
+
+    if (StringUtils.isNotBlank(context.getString(TYPE_HINT_HEADER_KEY))) {
+      typeHintHeader = context.getString(TYPE_HINT_HEADER_KEY);
+    }
   }
 
   @Override
@@ -37,11 +58,23 @@ public class ElasticSearchHTTPDynamicEventSerializer implements ElasticSearchHTT
 
     final Map <String, String> headers = event.getHeaders();
 
-    serializedEvent.addProperty(bodyFieldName, new String(event.getBody()));
+    // Reuses the body decoded by the interceptors when the event went through them in this JVM
+    serializedEvent.addProperty(bodyFieldName, EventBodies.decode(event, bodyCharset));
+
+    final Map <String, String> fieldTypes = GrokFieldTypes.parse(headers.get(typeHintHeader));
 
     for (String fieldName : headers.keySet()) {
 
       final String field = headers.get(fieldName);
+      final String fieldType = fieldTypes.isEmpty() ? null : fieldTypes.get(fieldName);
+
+      if (fieldName.equals(typeHintHeader)) {
+        continue;
+      }
+
+      if (fieldType != null && addTypedProperty(serializedEvent, fieldName, field, fieldType)) {
+        continue;
+      }
 
       if (DataUtils.isNumber(field)) {
         serializedEvent.addProperty(fieldName, Double.parseDouble(field));
@@ -55,4 +88,34 @@ public class ElasticSearchHTTPDynamicEventSerializer implements ElasticSearchHTT
 
     return serializedEvent;
   }
+
+  /**
+   * Adds a field with its declared type
+   *
+   * @return false if the value is not of the declared type
+   */
+  private boolean addTypedProperty(final JsonObject serializedEvent, final String fieldName, final String field, final String fieldType) {
+
+    if (field == null) {
+      return false;
+    }
+
+    try {
+
+      if (fieldType.equals(GrokFieldTypes.INT) || fieldType.equals(GrokFieldTypes.LONG)) {
+        serializedEvent.addProperty(fieldName, Long.valueOf(field));
+      } else if (fieldType.equals(GrokFieldTypes.FLOAT)) {
+        serializedEvent.addProperty(fieldName, Double.valueOf(field));
+      } else if (fieldType.equals(GrokFieldTypes.BOOL) && (field.equalsIgnoreCase("true") || field.equalsIgnoreCase("false"))) {
+        serializedEvent.addProperty(fieldName, Boolean.valueOf(field));
+      } else {
+        return false;
+      }
+
+    } catch (NumberFormatException e) {
+      return false;
+    }
+
+    return true;
+  }
 }
@@ -8,6 +8,10 @@ public class ElasticSearchHTTPSinkConstants {
   public static final String BODY_FIELDNAME_KEY = "bodyFieldName";
   public static final String DEFAULT_BODY_FIELDNAME = "body";
 
+  public static final String BODY_CHARSET_KEY = "bodyCharset";
+
+  public static final String TYPE_HINT_HEADER_KEY = "typeHintHeader";
+
   public static final String HOSTNAME = "hostName";
   public static final String DEFAULT_HOSTNAME = "localhost";
 
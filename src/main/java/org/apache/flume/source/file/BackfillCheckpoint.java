@@ -0,0 +1,138 @@
+package org.apache.flume.source.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Checkpoint File
+ *
+ * Persists the progress of every chunk of a backfill as JSON, so an interrupted backfill
+ * resumes each chunk from the last line the channel accepted and skips the chunks it finished <p>
+ *
+ * Saved progress is only reused for a chunk with the same range of the same file (file key and length)
+ *
+ */
+public class BackfillCheckpoint {
+
+  private static final Logger logger = LoggerFactory.getLogger(BackfillCheckpoint.class);
+
+  private final File file;
+
+  private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+  /* Chunks read from disk when the source started, keyed by path and start offset */
+  private final Map<String, BackfillChunk> savedChunks = new HashMap<String, BackfillChunk>();
+
+  /* Content of the last successful write, used to skip writes when nothing moved */
+  private String lastWritten = null;
+
+  public BackfillCheckpoint(final File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Reads the progress saved by a previous run, if any
+   */
+  public synchronized void load() {
+
+    savedChunks.clear();
+
+    if (!file.exists()) {
+      logger.info("Checkpoint file {} does not exist yet", file);
+      return;
+    }
+
+    Reader reader = null;
+
+    try {
+
+      reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+
+      final BackfillChunk[] chunks = gson.fromJson(reader, BackfillChunk[].class);
+
+      if (chunks != null) {
+        for (BackfillChunk chunk : chunks) {
+          savedChunks.put(key(chunk), chunk);
+        }
+      }
+
+      logger.info("Loaded progress of {} chunks from {}", savedChunks.size(), file);
+
+    } catch (IOException e) {
+      logger.warn("Checkpoint file " + file + " could not be read. Ignoring it", e);
+    } catch (JsonParseException e) {
+      logger.warn("Checkpoint file " + file + " is corrupt. Ignoring it", e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Carries the saved progress over to a newly planned chunk if it covers the same range of the same file
+   *
+   * @param chunk the planned chunk
+   */
+  public synchronized void restore(final BackfillChunk chunk) {
+
+    final BackfillChunk saved = savedChunks.remove(key(chunk));
+
+    if (saved != null && saved.isSameChunk(chunk)) {
+      chunk.setOffset(saved.getOffset());
+      chunk.setDone(saved.isDone());
+    }
+  }
+
+  /**
+   * Writes the progress of the chunks, replacing the previous content
+   *
+   * @param chunks every chunk of the backfill
+   */
+  public synchronized void write(final Collection<BackfillChunk> chunks) {
+
+    final String content = gson.toJson(chunks);
+
+    if (content.equals(lastWritten)) {
+      return;
+    }
+
+    final File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      logger.warn("Unable to create directory {} for the checkpoint file", parent);
+      return;
+    }
+
+    try {
+
+      StateFiles.writeAtomically(file, content);
+
+      lastWritten = content;
+
+    } catch (IOException e) {
+      logger.warn("Unable to write checkpoint file " + file, e);
+    }
+  }
+
+  private static String key(final BackfillChunk chunk) {
+    return chunk.getPath() + "@" + chunk.getStart();
+  }
+}
@@ -0,0 +1,95 @@
+package org.apache.flume.source.file;
+
+/**
+ * A unit of work of the FileBackfillSource and its progress, as stored in the checkpoint file <p>
+ *
+ * Plain files are split into byte ranges [start, end). A chunk owns every line that starts inside
+ * its range, so neighbouring chunks never deliver the same line twice. A compressed file is a
+ * single chunk covering the whole file <p>
+ *
+ * The offset is just past the last line accepted by the channel. For compressed files it counts
+ * decompressed bytes. The file key and length identify the file the progress belongs to
+ *
+ */
+public class BackfillChunk {
+
+  private final String path;
+
+  private final String fileKey;
+
+  private final long length;
+
+  private final boolean compressed;
+
+  private final long start;
+
+  private final long end;
+
+  private volatile long offset;
+
+  private volatile boolean done = false;
+
+  public BackfillChunk(final String path, final String fileKey, final long length,
+      final boolean compressed, final long start, final long end) {
+    this.path = path;
+    this.fileKey = fileKey;
+    this.length = length;
+    this.compressed = compressed;
+    this.start = start;
+    this.end = end;
+    this.offset = compressed ? 0L : start;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getFileKey() {
+    return fileKey;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public void setOffset(final long offset) {
+    this.offset = offset;
+  }
+
+  public boolean isDone() {
+    return done;
+  }
+
+  public void setDone(final boolean done) {
+    this.done = done;
+  }
+
+  /**
+   * Whether the saved chunk describes the same range of the same file as this one
+   */
+  public boolean isSameChunk(final BackfillChunk other) {
+    return path.equals(other.path) && fileKey.equals(other.fileKey) && length == other.length
+        && compressed == other.compressed && start == other.start && end == other.end;
+  }
+
+  @Override
+  public String toString() {
+    return path + "[" + start + ", " + end + ")";
+  }
+}
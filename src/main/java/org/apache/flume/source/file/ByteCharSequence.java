@@ -0,0 +1,65 @@
+package org.apache.flume.source.file;
+
+/**
+ * Read-only view of a byte array as a sequence of characters <p>
+ *
+ * Every byte maps to the character with the same value (ISO-8859-1), so regular expressions
+ * written in ASCII can be matched against UTF-8 lines without decoding them first.
+ * Multi-byte characters show up as several characters in the 0x80-0xFF range.
+ *
+ */
+public class ByteCharSequence implements CharSequence {
+
+  private final byte[] bytes;
+
+  private final int offset;
+
+  private final int length;
+
+  public ByteCharSequence(final byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  public ByteCharSequence(final byte[] bytes, final int offset, final int length) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for length " + length);
+    }
+
+    return (char) (bytes[offset + index] & 0xFF);
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is out of bounds for length " + length);
+    }
+
+    return new ByteCharSequence(bytes, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+
+    final char[] chars = new char[length];
+
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) (bytes[offset + i] & 0xFF);
+    }
+
+    return new String(chars);
+  }
+}
@@ -0,0 +1,685 @@
+package org.apache.flume.source.file;
+
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BATCH_SIZE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BATCH_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BUFFER_SIZE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BUFFER_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHARSET_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHARSET_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHECKPOINT_FILE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHECKPOINT_INTERVAL_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHECKPOINT_INTERVAL_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHUNK_SIZE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHUNK_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.COMPRESSED_FILE_SUFFIX;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.DIRECTORY_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_NAME_PATTERN_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_NAME_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_PATH;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.INITIAL_BACKOFF_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.INITIAL_BACKOFF_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BACKOFF_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BACKOFF_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_CONTINUATION_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_FLUSH_TIMEOUT_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_BYTES_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_BYTES_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_LINES_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_LINES_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_START_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POOL_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POSITION_FILE_DIRECTORY_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_DATE_FORMAT_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_END_TIME_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_INDEX_DIRECTORY_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_START_TIME_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_TIMESTAMP_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_TIMEZONE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REPLAY_TIMEZONE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.TIMESTAMP_INDEX_SUFFIX;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDrivenSource;
+import org.apache.flume.conf.Configurable;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.instrumentation.SourceCounter;
+import org.apache.flume.source.AbstractSource;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * File Backfill Source
+ *
+ * Ingests existing files once, such as weeks of rotated logs, using every core instead of
+ * following a single file the way the FileSource does <p>
+ *
+ * Plain files are split into line-aligned chunks of about chunkSize bytes and gzip files (.gz) are
+ * decompressed as a stream, one task per file. The tasks run on a pool of poolSize threads and each
+ * one delivers its lines to the channel in batches of batchSize events <p>
+ *
+ * The progress of every chunk is saved to a checkpoint file, so an interrupted backfill resumes
+ * each chunk after the last batch the channel accepted and skips the chunks it finished.
+ * Events from different chunks are delivered in no particular order relative to each other <p>
+ *
+ * In replay mode (replayStartTime and replayEndTime) only the events of that time window are delivered.
+ * Each plain file is binary searched on the timestamps of its lines, through a sparse {@link TimestampIndex}
+ * saved next to it, and only the byte range covering the window is read. Compressed files cannot be
+ * searched, so they are read in full and filtered.
+ *
+ */
+public class FileBackfillSource extends AbstractSource implements Configurable, EventDrivenSource {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileBackfillSource.class);
+
+  /* Configurable options for this source */
+  private File directory = null;
+  private PathMatcher fileNameMatcher = null;
+  private int poolSize = Runtime.getRuntime().availableProcessors();
+  private long chunkSize = CHUNK_SIZE_DEFAULT;
+  private int batchSize = BATCH_SIZE_DEFAULT;
+  private int bufferSize = BUFFER_SIZE_DEFAULT;
+  private Charset charset = null;
+  private long checkpointIntervalMillis = CHECKPOINT_INTERVAL_MILLIS_DEFAULT;
+  private long initialBackoffMillis = INITIAL_BACKOFF_MILLIS_DEFAULT;
+  private long maxBackoffMillis = MAX_BACKOFF_MILLIS_DEFAULT;
+  private Pattern multilineStartPattern = null;
+  private Pattern multilineContinuationPattern = null;
+  private int multilineMaxLines = MULTILINE_MAX_LINES_DEFAULT;
+  private int multilineMaxBytes = MULTILINE_MAX_BYTES_DEFAULT;
+  private Long replayStartMillis = null;
+  private Long replayEndMillis = null;
+  private String replayDateFormat = null;
+  private String replayTimezone = REPLAY_TIMEZONE_DEFAULT;
+  private Pattern replayTimestampPattern = null;
+  private File replayIndexDirectory = null;
+
+  /* Progress of every chunk, saved so an interrupted backfill resumes where it stopped */
+  private BackfillCheckpoint checkpoint;
+
+  /* Executor running the chunks */
+  private ExecutorService chunkExecutor;
+
+  /* Executor for the periodic checkpoint writes */
+  private ScheduledExecutorService checkpointExecutor;
+
+  /* Every chunk of the backfill, including the ones finished by an earlier run */
+  private final List<BackfillChunk> chunks = new ArrayList<BackfillChunk>();
+
+  /* Number of chunks that have not finished yet */
+  private final AtomicInteger remainingChunks = new AtomicInteger(0);
+
+  /* Number of chunks that stopped on an error in this run */
+  private final AtomicInteger failedChunks = new AtomicInteger(0);
+
+  private volatile boolean running = false;
+
+  private SourceCounter sourceCounter;
+
+  /**
+   * Setting up the Source object using values from the configuration file
+   *
+   * @param Context a key value store used to pass in configuration information
+   */
+  @Override
+  public synchronized void configure(Context context) {
+
+    final String filePath = context.getString(FILE_PATH, null);
+    final String directoryName = context.getString(DIRECTORY_KEY, null);
+
+    Preconditions.checkState(filePath != null || directoryName != null,
+        "Configuration must specify a source file path or a source directory");
+
+    Preconditions.checkState(filePath == null || directoryName == null,
+        "Configuration must not specify both " + FILE_PATH + " and " + DIRECTORY_KEY);
+
+    if (filePath != null) {
+
+      final File file = new File(filePath).getAbsoluteFile();
+
+      this.directory = file.getParentFile();
+      this.fileNameMatcher = FileSource.createFileNameMatcher(FileSource.REGEX_SYNTAX + Pattern.quote(file.getName()));
+
+    } else {
+
+      final String fileNamePattern = context.getString(FILE_NAME_PATTERN_KEY, FILE_NAME_PATTERN_DEFAULT);
+
+      Preconditions.checkState(StringUtils.isNotBlank(fileNamePattern), "Missing Param:" + FILE_NAME_PATTERN_KEY);
+
+      this.directory = new File(directoryName).getAbsoluteFile();
+      this.fileNameMatcher = FileSource.createFileNameMatcher(fileNamePattern);
+    }
+
+    this.poolSize = context.getInteger(POOL_SIZE_KEY, Runtime.getRuntime().availableProcessors());
+    this.chunkSize = context.getLong(CHUNK_SIZE_KEY, CHUNK_SIZE_DEFAULT);
+    this.batchSize = context.getInteger(BATCH_SIZE_KEY, BATCH_SIZE_DEFAULT);
+    this.bufferSize = context.getInteger(BUFFER_SIZE_KEY, BUFFER_SIZE_DEFAULT);
+    this.checkpointIntervalMillis = context.getLong(CHECKPOINT_INTERVAL_MILLIS_KEY, CHECKPOINT_INTERVAL_MILLIS_DEFAULT);
+    this.initialBackoffMillis = context.getLong(INITIAL_BACKOFF_MILLIS_KEY, INITIAL_BACKOFF_MILLIS_DEFAULT);
+    this.maxBackoffMillis = context.getLong(MAX_BACKOFF_MILLIS_KEY, MAX_BACKOFF_MILLIS_DEFAULT);
+    this.checkpoint = new BackfillCheckpoint(new File(context.getString(CHECKPOINT_FILE_KEY,
+        POSITION_FILE_DIRECTORY_DEFAULT + File.separator + "filebackfill-" + getName() + ".checkpoint.json")));
+
+    final String startPattern = context.getString(MULTILINE_START_PATTERN_KEY);
+    final String continuationPattern = context.getString(MULTILINE_CONTINUATION_PATTERN_KEY);
+
+    this.multilineStartPattern = StringUtils.isNotBlank(startPattern) ? Pattern.compile(startPattern) : null;
+    this.multilineContinuationPattern = StringUtils.isNotBlank(continuationPattern) ? Pattern.compile(continuationPattern) : null;
+    this.multilineMaxLines = context.getInteger(MULTILINE_MAX_LINES_KEY, MULTILINE_MAX_LINES_DEFAULT);
+    this.multilineMaxBytes = context.getInteger(MULTILINE_MAX_BYTES_KEY, MULTILINE_MAX_BYTES_DEFAULT);
+
+    final String replayStartTime = context.getString(REPLAY_START_TIME_KEY);
+    final String replayEndTime = context.getString(REPLAY_END_TIME_KEY);
+
+    Preconditions.checkState(StringUtils.isBlank(replayStartTime) == StringUtils.isBlank(replayEndTime),
+        REPLAY_START_TIME_KEY + " and " + REPLAY_END_TIME_KEY + " must be specified together");
+
+    if (StringUtils.isNotBlank(replayStartTime)) {
+
+      this.replayDateFormat = context.getString(REPLAY_DATE_FORMAT_KEY);
+      this.replayTimezone = context.getString(REPLAY_TIMEZONE_KEY, REPLAY_TIMEZONE_DEFAULT);
+
+      Preconditions.checkState(StringUtils.isNotBlank(replayDateFormat), "Missing Param:" + REPLAY_DATE_FORMAT_KEY);
+
+      // The window is given in ISO 8601, in the zone of the timestamps unless it carries an offset
+      final DateTimeZone zone = DateTimeZone.forID(replayTimezone);
+
+      this.replayStartMillis = ISODateTimeFormat.dateTimeParser().withZone(zone).parseMillis(replayStartTime);
+      this.replayEndMillis = ISODateTimeFormat.dateTimeParser().withZone(zone).parseMillis(replayEndTime);
+
+      Preconditions.checkState(replayStartMillis < replayEndMillis,
+          REPLAY_START_TIME_KEY + " must be before " + REPLAY_END_TIME_KEY);
+
+      final String timestampPattern = context.getString(REPLAY_TIMESTAMP_PATTERN_KEY);
+      final String indexDirectory = context.getString(REPLAY_INDEX_DIRECTORY_KEY);
+
+      this.replayTimestampPattern = StringUtils.isNotBlank(timestampPattern) ? Pattern.compile(timestampPattern) : null;
+      this.replayIndexDirectory = StringUtils.isNotBlank(indexDirectory) ? new File(indexDirectory) : null;
+    }
+
+    final String charsetName = context.getString(CHARSET_KEY, CHARSET_DEFAULT);
+
+    Preconditions.checkState(Charset.isSupported(charsetName), "Unsupported " + CHARSET_KEY + ": " + charsetName);
+
+    this.charset = Charset.forName(charsetName);
+
+    // Lines are split on the raw bytes, so a line feed must be the single byte 0x0A in this charset
+    Preconditions.checkState(Arrays.equals("\n".getBytes(charset), new byte[] { '\n' }),
+        CHARSET_KEY + " " + charsetName + " is not ASCII compatible");
+
+    Preconditions.checkState(poolSize > 0, POOL_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(chunkSize > 0, CHUNK_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(batchSize > 0, BATCH_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(bufferSize > 0, BUFFER_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(checkpointIntervalMillis > 0, CHECKPOINT_INTERVAL_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(initialBackoffMillis > 0, INITIAL_BACKOFF_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(maxBackoffMillis >= initialBackoffMillis, MAX_BACKOFF_MILLIS_KEY + " must not be less than " + INITIAL_BACKOFF_MILLIS_KEY);
+    Preconditions.checkState(multilineMaxLines > 0, MULTILINE_MAX_LINES_KEY + " must be greater than zero");
+    Preconditions.checkState(multilineMaxBytes > 0, MULTILINE_MAX_BYTES_KEY + " must be greater than zero");
+
+    if (sourceCounter == null) {
+      sourceCounter = new SourceCounter(getName());
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+
+    logger.info("FileBackfillSource source {} starting with directory: {}", getName(), directory);
+
+    this.chunkExecutor = Executors.newFixedThreadPool(poolSize,
+        new ThreadFactoryBuilder().setNameFormat("FileBackfillSource-" + getName() + "-worker-%d").build());
+
+    this.checkpointExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("FileBackfillSource-" + getName() + "-checkpoint").build());
+
+    this.running = true;
+
+    checkpoint.load();
+    planChunks();
+
+    final List<BackfillChunk> pendingChunks = new ArrayList<BackfillChunk>();
+
+    for (BackfillChunk chunk : chunks) {
+      if (!chunk.isDone()) {
+        pendingChunks.add(chunk);
+      }
+    }
+
+    logger.info("Backfilling {} chunks, {} of them left from a previous run", chunks.size(), pendingChunks.size());
+
+    remainingChunks.set(pendingChunks.size());
+    failedChunks.set(0);
+
+    // Compressed files cannot be split, so they are started first to keep them off the critical path
+    for (BackfillChunk chunk : pendingChunks) {
+      if (chunk.isCompressed()) {
+        chunkExecutor.execute(new BackfillChunkReader(chunk));
+      }
+    }
+
+    for (BackfillChunk chunk : pendingChunks) {
+      if (!chunk.isCompressed()) {
+        chunkExecutor.execute(new BackfillChunkReader(chunk));
+      }
+    }
+
+    this.checkpointExecutor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          checkpoint.write(chunks);
+        } catch (Throwable t) {
+          // An exception here would suppress all the subsequent writes
+          logger.error("Unable to save progress to " + checkpoint.getFile(), t);
+        }
+      }
+    }, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+
+    super.start();
+    sourceCounter.start();
+  }
+
+  /**
+   * Splits every matching file in the directory into chunks and restores their saved progress
+   */
+  private void planChunks() {
+
+    chunks.clear();
+
+    final File[] candidates = directory.listFiles();
+
+    if (candidates == null) {
+      logger.warn("Directory {} could not be listed", directory);
+      return;
+    }
+
+    Arrays.sort(candidates);
+
+    for (File candidate : candidates) {
+
+      if (!candidate.isFile() || !fileNameMatcher.matches(candidate.toPath().getFileName())
+          || candidate.getName().endsWith(TIMESTAMP_INDEX_SUFFIX) || candidate.getName().endsWith(TIMESTAMP_INDEX_SUFFIX + ".tmp")) {
+        continue;
+      }
+
+      final String fileKey;
+
+      try {
+        final Object key = Files.readAttributes(candidate.toPath(), BasicFileAttributes.class).fileKey();
+        fileKey = (key != null) ? key.toString() : "";
+      } catch (IOException e) {
+        logger.warn("File " + candidate + " could not be read. Skipping it", e);
+        continue;
+      }
+
+      final String path = candidate.getPath();
+      final long length = candidate.length();
+
+      if (candidate.getName().endsWith(COMPRESSED_FILE_SUFFIX)) {
+        chunks.add(new BackfillChunk(path, fileKey, length, true, 0L, length));
+      } else {
+
+        final long[] range = replayRange(candidate, fileKey);
+
+        for (long start = range[0]; start < range[1]; start += chunkSize) {
+          chunks.add(new BackfillChunk(path, fileKey, length, false, start, Math.min(start + chunkSize, range[1])));
+        }
+      }
+    }
+
+    for (BackfillChunk chunk : chunks) {
+      checkpoint.restore(chunk);
+    }
+  }
+
+  /**
+   * Works out the byte range of a plain file to read
+   *
+   * @return the start and end offsets, the whole file unless in replay mode
+   */
+  private long[] replayRange(final File file, final String fileKey) {
+
+    if (replayStartMillis == null) {
+      return new long[] { 0L, file.length() };
+    }
+
+    final File indexFile = (replayIndexDirectory != null)
+        ? new File(replayIndexDirectory, file.getName() + TIMESTAMP_INDEX_SUFFIX)
+        : new File(file.getPath() + TIMESTAMP_INDEX_SUFFIX);
+
+    final TimestampIndex index = new TimestampIndex(file, fileKey, indexFile, replayTimestampFormat(), charset,
+        createTimestampParser());
+
+    try {
+
+      final long[] range = new long[] { index.lowerBound(replayStartMillis), index.upperBound(replayEndMillis) };
+
+      logger.info("Replaying bytes {} to {} of file {}", new Object[] { range[0], range[1], file });
+
+      return range;
+
+    } catch (TimestampIndex.NoTimestampException e) {
+
+      logger.warn("{}. Check {}. Skipping the file", e.getMessage(), REPLAY_DATE_FORMAT_KEY);
+
+      return new long[] { 0L, 0L };
+
+    } catch (IOException e) {
+
+      logger.warn("Unable to search file " + file + " by timestamp. Filtering all of it instead", e);
+
+      return new long[] { 0L, file.length() };
+
+    } finally {
+      index.save();
+    }
+  }
+
+  private LineTimestampParser createTimestampParser() {
+    return new LineTimestampParser(replayDateFormat, replayTimezone, replayTimestampPattern);
+  }
+
+  /**
+   * Everything that affects the timestamps read from the lines, saved with the indexes
+   */
+  private String replayTimestampFormat() {
+    return replayDateFormat + " " + replayTimezone + " " + (replayTimestampPattern != null ? replayTimestampPattern.pattern() : "");
+  }
+
+  @Override
+  public synchronized void stop() {
+
+    this.running = false;
+
+    this.checkpointExecutor.shutdownNow();
+    this.chunkExecutor.shutdown();
+
+    try {
+      this.chunkExecutor.awaitTermination(10L, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      logger.info("chunkExecutor Interrupted while awaiting termination", e);
+    }
+
+    this.chunkExecutor.shutdownNow();
+
+    // Everything accepted by the channel up to this point is recorded
+    checkpoint.write(chunks);
+
+    super.stop();
+    sourceCounter.stop();
+
+    logger.info("FileBackfillSource {} stopped. Metrics: {}", getName(), sourceCounter);
+  }
+
+  private Event eventSerializer(final byte[] rawEvent, final BackfillChunk chunk) {
+
+    final Map<String,String> headers = new HashMap<String, String>();
+
+    headers.put(FILE_PATH, chunk.getPath());
+
+    return EventBuilder.withBody(rawEvent, headers);
+  }
+
+  /**
+   * Reads the lines of one chunk and delivers them to the channel in batches <p>
+   *
+   * A chunk that does not start at the beginning of the file skips the line in progress at its start,
+   * which belongs to the previous chunk, and reads past its end to complete its last line. With multiline
+   * assembly, continuation lines at the start are skipped and continuation lines past the end are read
+   * in the same way, so an event is never split between chunks
+   *
+   */
+  private class BackfillChunkReader implements Runnable {
+
+    private final BackfillChunk chunk;
+
+    private final List<Event> batch = new ArrayList<Event>(batchSize);
+
+    /* Reads the timestamps of the events in replay mode, null otherwise */
+    private final LineTimestampParser timestampParser;
+
+    /* Whether the last event with a timestamp was inside the replay window */
+    private boolean inReplayWindow = false;
+
+    public BackfillChunkReader(final BackfillChunk chunk) {
+      this.chunk = chunk;
+      this.timestampParser = (replayStartMillis != null) ? createTimestampParser() : null;
+    }
+
+    @Override
+    public void run() {
+
+      try {
+
+        if (read()) {
+          chunk.setDone(true);
+          logger.debug("Finished chunk {}", chunk);
+        }
+
+      } catch (InterruptedException e) {
+        logger.debug("Source is stopping. Interrupted chunk {}", chunk);
+      } catch (Throwable t) {
+        failedChunks.incrementAndGet();
+        logger.error("Chunk " + chunk + " encountered an exception. It is retried on the next start", t);
+      } finally {
+
+        if (remainingChunks.decrementAndGet() == 0 && running) {
+
+          checkpoint.write(chunks);
+
+          if (failedChunks.get() > 0) {
+            logger.warn("Backfill finished with {} failed chunks. Metrics: {}", failedChunks.get(), sourceCounter);
+          } else {
+            logger.info("Backfill complete. Metrics: {}", sourceCounter);
+          }
+        }
+      }
+    }
+
+    /**
+     * @return true if the whole chunk was delivered, false if the source stopped first
+     */
+    private boolean read() throws IOException, InterruptedException {
+
+      final boolean resumed = chunk.isCompressed() ? chunk.getOffset() > 0L : chunk.getOffset() > chunk.getStart();
+
+      // Starting one byte early tells whether the chunk starts on a line boundary
+      final long base = chunk.isCompressed() ? 0L : (resumed || chunk.getStart() == 0L) ? chunk.getOffset() : chunk.getStart() - 1;
+
+      final MultilineAssembler multiline = (multilineStartPattern == null && multilineContinuationPattern == null) ? null
+          : new MultilineAssembler(multilineStartPattern, multilineContinuationPattern,
+              multilineMaxLines, multilineMaxBytes, MULTILINE_FLUSH_TIMEOUT_MILLIS_DEFAULT);
+
+      final InputStream in = open(base);
+
+      try {
+
+        final LineReader reader = new LineReader(in, bufferSize, charset);
+
+        if (chunk.isCompressed()) {
+          // Decompressed data cannot be seeked, so the lines delivered before are read again and dropped
+          while (reader.getOffset() < chunk.getOffset() && reader.readLine() != null) {
+            continue;
+          }
+        } else if (base < chunk.getStart()) {
+          reader.readLine();
+        }
+
+        boolean leading = multiline != null && !resumed && chunk.getStart() > 0L;
+
+        while (running) {
+
+          final long lineStart = base + reader.getOffset();
+          final byte[] line = reader.readLine();
+
+          if (line == null) {
+            break;
+          }
+
+          final long lineEnd = base + reader.getOffset();
+          final boolean pastEnd = !chunk.isCompressed() && lineStart >= chunk.getEnd();
+          final TailedLine event;
+
+          if (multiline == null) {
+
+            if (pastEnd) {
+              break;
+            }
+
+            event = new TailedLine(line, lineEnd);
+
+          } else {
+
+            if (leading && multiline.isContinuation(line)) {
+              continue;
+            }
+
+            leading = false;
+
+            if (pastEnd && !multiline.isContinuation(line)) {
+              break;
+            }
+
+            event = multiline.add(line, lineEnd);
+          }
+
+          if (event != null && isReplayed(event.getBody())) {
+
+            batch.add(eventSerializer(event.getBody(), chunk));
+
+            if (batch.size() >= batchSize && !deliver(event.getEndOffset())) {
+              return false;
+            }
+          }
+        }
+
+        if (!running) {
+          return false;
+        }
+
+        final TailedLine lastEvent = (multiline != null) ? multiline.flush() : null;
+
+        if (lastEvent != null && isReplayed(lastEvent.getBody())) {
+          batch.add(eventSerializer(lastEvent.getBody(), chunk));
+        }
+
+        return deliver(base + reader.getOffset());
+
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+    }
+
+    /**
+     * Whether the event falls inside the replay window. Events without a timestamp go with the previous one
+     */
+    private boolean isReplayed(final byte[] body) {
+
+      if (timestampParser == null) {
+        return true;
+      }
+
+      final Long timestamp = timestampParser.parse(body);
+
+      if (timestamp != null) {
+        inReplayWindow = timestamp.longValue() >= replayStartMillis && timestamp.longValue() < replayEndMillis;
+      }
+
+      return inReplayWindow;
+    }
+
+    private InputStream open(final long offset) throws IOException {
+
+      final File file = new File(chunk.getPath());
+
+      if (chunk.isCompressed()) {
+        return new GZIPInputStream(new FileInputStream(file), bufferSize);
+      }
+
+      final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      channel.position(offset);
+
+      return Channels.newInputStream(channel);
+    }
+
+    /**
+     * Sends the batch to the channel, backing off while the channel is full
+     *
+     * @param endOffset offset just past the last line in the batch
+     * @return false if the source stopped before the batch was accepted
+     */
+    private boolean deliver(final long endOffset) throws InterruptedException {
+
+      long backoffMillis = 0L;
+
+      while (running) {
+
+        try {
+
+          if (!batch.isEmpty()) {
+
+            // A refused batch is only counted as received on its first attempt
+            if (backoffMillis == 0L) {
+              sourceCounter.addToEventReceivedCount(batch.size());
+              sourceCounter.incrementAppendBatchReceivedCount();
+            }
+
+            getChannelProcessor().processEventBatch(batch);
+
+            sourceCounter.addToEventAcceptedCount(batch.size());
+            sourceCounter.incrementAppendBatchAcceptedCount();
+
+            batch.clear();
+          }
+
+          chunk.setOffset(endOffset);
+
+          return true;
+
+        } catch (ChannelException ce) {
+
+          backoffMillis = (backoffMillis == 0L) ? initialBackoffMillis : Math.min(backoffMillis * 2, maxBackoffMillis);
+
+          logger.warn("Channel is full at the moment. Retrying batch of chunk {} in {} ms", chunk, backoffMillis);
+          Thread.sleep(backoffMillis);
+        }
+      }
+
+      return false;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.apache.flume.source.file;
+
+/**
+ * Committed read position of one tailed file, as stored in the position file <p>
+ *
+ * The file key (device and inode where available) and the checksum of the first
+ * fingerprintLength bytes identify the file the offset belongs to
+ *
+ */
+public class FilePosition {
+
+  private final String path;
+
+  private final String fileKey;
+
+  private final int fingerprintLength;
+
+  private final long fingerprint;
+
+  private final long offset;
+
+  public FilePosition(final String path, final String fileKey, final int fingerprintLength,
+      final long fingerprint, final long offset) {
+    this.path = path;
+    this.fileKey = fileKey;
+    this.fingerprintLength = fingerprintLength;
+    this.fingerprint = fingerprint;
+    this.offset = offset;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getFileKey() {
+    return fileKey;
+  }
+
+  public int getFingerprintLength() {
+    return fingerprintLength;
+  }
+
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+}
@@ -1,66 +1,239 @@
 package org.apache.flume.source.file;
 
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BATCH_LINGER_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BATCH_LINGER_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BATCH_SIZE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BATCH_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BUFFER_SIZE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.BUFFER_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHARSET_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.CHARSET_KEY;
 import static org.apache.flume.source.file.FileSourceConfigurationConstants.DELAY_MILLIS_DEFAULT;
 import static org.apache.flume.source.file.FileSourceConfigurationConstants.DELAY_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.DIRECTORY_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.DISCOVERY_INTERVAL_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.DISCOVERY_INTERVAL_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_NAME_PATTERN_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_NAME_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_NOTIFICATIONS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_NOTIFICATIONS_KEY;
 import static org.apache.flume.source.file.FileSourceConfigurationConstants.FILE_PATH;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.INITIAL_BACKOFF_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.INITIAL_BACKOFF_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.LAG_CHECK_INTERVAL_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.LAG_CHECK_INTERVAL_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BACKOFF_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BACKOFF_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BUFFERED_BYTES_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BUFFERED_BYTES_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BYTES_PER_SECOND_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_BYTES_PER_SECOND_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_DELAY_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_DELAY_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_LINES_PER_SECOND_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MAX_LINES_PER_SECOND_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_CONTINUATION_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_FLUSH_TIMEOUT_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_FLUSH_TIMEOUT_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_BYTES_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_BYTES_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_LINES_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_MAX_LINES_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.MULTILINE_START_PATTERN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POOL_SIZE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POOL_SIZE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POSITION_FILE_DIRECTORY_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POSITION_FILE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POSITION_FLUSH_INTERVAL_MILLIS_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.POSITION_FLUSH_INTERVAL_MILLIS_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.QUEUE_CAPACITY_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.QUEUE_CAPACITY_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.RATE_LIMIT_PER_FILE_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.RATE_LIMIT_PER_FILE_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REOPEN_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.REOPEN_KEY;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.SCHEDULING_QUANTUM_BYTES_DEFAULT;
+import static org.apache.flume.source.file.FileSourceConfigurationConstants.SCHEDULING_QUANTUM_BYTES_KEY;
 import static org.apache.flume.source.file.FileSourceConfigurationConstants.START_FROM_END_DEFAULT;
 import static org.apache.flume.source.file.FileSourceConfigurationConstants.START_FROM_END_KEY;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
 
-import org.apache.commons.io.input.Tailer;
-import org.apache.commons.io.input.TailerListener;
+import org.apache.commons.lang.StringUtils;
 import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.event.EventBuilder;
-import org.apache.flume.instrumentation.SourceCounter;
 import org.apache.flume.source.AbstractSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
-
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * File Source
+ *
+ * Tails either a single file (path) or every file in a directory whose name matches
+ * a glob or regex (directory and fileNamePattern) <p>
+ *
+ * All the tailed files are read by a shared pool of poolSize reader threads and a single
+ * consumer thread moves their lines into the channel, so the number of threads does not
+ * grow with the number of files <p>
+ *
+ * When the channel refuses a batch the consumer backs off exponentially before retrying it,
+ * and the readers pause while more than maxBufferedBytes of lines are held in memory <p>
+ *
+ * The consumer shares each batch between the files with deficit round robin, so a chatty file cannot
+ * starve the others, and maxLinesPerSecond and maxBytesPerSecond optionally cap the rate of the whole
+ * source or, with rateLimitPerFile, of each file on its own <p>
+ *
+ * When multilineStartPattern or multilineContinuationPattern is set, continuation lines such as
+ * stack traces are joined onto the line that starts them and delivered as a single event <p>
+ *
+ * Files are tracked by file key (device and inode) rather than by name, so every file is read
+ * exactly once across rotations. A file renamed by rotation keeps being read through its open
+ * handle until it stops growing, while the new file at the old name is read from the beginning.
+ * A file truncated by copytruncate rotation is read again from the beginning, and a copy of it
+ * that matches the file name pattern is read from where the original left off.
+ *
+ */
 public class FileSource extends AbstractSource implements Configurable, EventDrivenSource {
 
   private static final Logger logger = LoggerFactory.getLogger(FileSource.class);
 
-  private static final int POLL_DELAY_MS = 500;
+  /* Longest time the consumer sleeps when no reader has signalled new lines */
+  private static final long POLL_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500L);
 
   private static final int INITIAL_DELAY_MS = 0;
 
+  /* Longest single wait while the consumer lingers for a batch to fill up */
+  private static final long LINGER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+  static final String GLOB_SYNTAX = "glob:";
+
+  static final String REGEX_SYNTAX = "regex:";
+
+  /* Number of discovery intervals a copy of a tailed file waits for the original to be truncated */
+  private static final int COPY_WAIT_INTERVALS = 2;
+
+  /* Number of truncated contents remembered for recognising their copies */
+  private static final int MAX_TRUNCATED_CONTENTS = 64;
+
   /* Configurable options for this source */
   private String filePath = null;
+  private File directory = null;
+  private PathMatcher fileNameMatcher = null;
   private boolean startFromEnd = false;
   private long delayMillis = 100L;
+  private long maxDelayMillis = MAX_DELAY_MILLIS_DEFAULT;
+  private boolean fileNotifications = FILE_NOTIFICATIONS_DEFAULT;
+  private int queueCapacity = QUEUE_CAPACITY_DEFAULT;
+  private int batchSize = BATCH_SIZE_DEFAULT;
+  private long batchLingerMillis = BATCH_LINGER_MILLIS_DEFAULT;
+  private int poolSize = POOL_SIZE_DEFAULT;
+  private long discoveryIntervalMillis = DISCOVERY_INTERVAL_MILLIS_DEFAULT;
+  private long positionFlushIntervalMillis = POSITION_FLUSH_INTERVAL_MILLIS_DEFAULT;
+  private int bufferSize = BUFFER_SIZE_DEFAULT;
+  private Charset charset = null;
+  private boolean reOpen = REOPEN_DEFAULT;
+  private long maxBufferedBytes = MAX_BUFFERED_BYTES_DEFAULT;
+  private long initialBackoffMillis = INITIAL_BACKOFF_MILLIS_DEFAULT;
+  private long maxBackoffMillis = MAX_BACKOFF_MILLIS_DEFAULT;
+  private Pattern multilineStartPattern = null;
+  private Pattern multilineContinuationPattern = null;
+  private int multilineMaxLines = MULTILINE_MAX_LINES_DEFAULT;
+  private int multilineMaxBytes = MULTILINE_MAX_BYTES_DEFAULT;
+  private long multilineFlushTimeoutMillis = MULTILINE_FLUSH_TIMEOUT_MILLIS_DEFAULT;
+  private long maxLinesPerSecond = MAX_LINES_PER_SECOND_DEFAULT;
+  private long maxBytesPerSecond = MAX_BYTES_PER_SECOND_DEFAULT;
+  private boolean rateLimitPerFile = RATE_LIMIT_PER_FILE_DEFAULT;
+  private int schedulingQuantumBytes = SCHEDULING_QUANTUM_BYTES_DEFAULT;
+  private long lagCheckIntervalMillis = LAG_CHECK_INTERVAL_MILLIS_DEFAULT;
+
+  /* Direct read buffer of each reader thread, shared by all the files the thread reads */
+  private final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<ByteBuffer>() {
+
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+  };
+
+  /* Committed read offsets of the tailed files, saved so a restart resumes where the source stopped */
+  private PositionFile positionFile;
 
-  /* Executor for the event generator (producer) */
+  /* Executor shared by the directory scanner and the readers of every tailed file (producers) */
   private ScheduledExecutorService fileTailerExecutor;
 
   /* Executor for the event extractor (consumer) */
-  private ScheduledExecutorService eventExtractorExecutor;
+  private ExecutorService eventExtractorExecutor;
+
+  /* Executor for the thread that waits for file system notifications */
+  private ExecutorService fileWatcherExecutor;
+
+  /* Reports changes in the directory when file notifications are enabled, null otherwise */
+  private WatchService watchService;
+
+  private FileSourceDirectoryScanner directoryScanner;
+
+  /* Thread running the consumer, woken up by the readers when they add lines to the queues */
+  private volatile Thread consumerThread;
+
+  private volatile boolean running = false;
+
+  /* Files currently being tailed, keyed by file key. Each one has its own queue of extracted lines */
+  private final Map<String, TailedFile> tailedFiles = new ConcurrentHashMap<String, TailedFile>();
 
-  /* Queue where extracted events are stored temporarily */
-  private Queue<String> queue;
+  /* Reader for each tailed file, keyed by file key */
+  private final Map<String, FileSourceEventProducer> producers = new ConcurrentHashMap<String, FileSourceEventProducer>();
 
-  /* Binary semaphore used to protect critical sections (queue) */
-  private Semaphore mutex;
+  /* File key of the tailed file at each path, used to route file system notifications */
+  private final ConcurrentMap<String, String> fileKeysByPath = new ConcurrentHashMap<String, String>();
 
-  /* Tailer that watches the log files for new events */
-  private Tailer tailer;
+  /* Size of the line bodies read from the files and not yet accepted by the channel */
+  private final AtomicLong bufferedBytes = new AtomicLong(0L);
+
+  /* Readers that stopped reading for lack of room, resumed by the consumer once it frees some */
+  private final Set<FileSourceEventProducer> pausedProducers =
+      Collections.newSetFromMap(new ConcurrentHashMap<FileSourceEventProducer, Boolean>());
 
   /* MonitoredCounterGroup object used for keeping track of internal metrics using atomic integers */
-  private SourceCounter sourceCounter;
+  private FileSourceCounter sourceCounter;
 
   /**
    * Setting up the Source object using values from the configuration file
@@ -72,34 +245,149 @@ public class FileSource extends AbstractSource implements Configurable, EventDri
 
     this.filePath = context.getString(FILE_PATH, null);
 
-    Preconditions.checkState(filePath != null, "Configuration must specify a source file path");
+    final String directoryName = context.getString(DIRECTORY_KEY, null);
+
+    Preconditions.checkState(filePath != null || directoryName != null,
+        "Configuration must specify a source file path or a source directory");
+
+    Preconditions.checkState(filePath == null || directoryName == null,
+        "Configuration must not specify both " + FILE_PATH + " and " + DIRECTORY_KEY);
+
+    if (filePath != null) {
+
+      // A single file is tailed as the only matching entry in its parent directory
+      final File file = new File(filePath).getAbsoluteFile();
+      final String fileName = file.getName();
+
+      this.directory = file.getParentFile();
+      this.fileNameMatcher = new PathMatcher() {
+
+        @Override
+        public boolean matches(Path path) {
+          return fileName.equals(path.toString());
+        }
+      };
+
+    } else {
+
+      final String fileNamePattern = context.getString(FILE_NAME_PATTERN_KEY, FILE_NAME_PATTERN_DEFAULT);
+
+      Preconditions.checkState(StringUtils.isNotBlank(fileNamePattern), "Missing Param:" + FILE_NAME_PATTERN_KEY);
+
+      this.directory = new File(directoryName).getAbsoluteFile();
+      this.fileNameMatcher = createFileNameMatcher(fileNamePattern);
+    }
 
     this.delayMillis = context.getInteger(DELAY_MILLIS_KEY, DELAY_MILLIS_DEFAULT);
+    this.maxDelayMillis = context.getLong(MAX_DELAY_MILLIS_KEY, MAX_DELAY_MILLIS_DEFAULT);
+    this.fileNotifications = context.getBoolean(FILE_NOTIFICATIONS_KEY, FILE_NOTIFICATIONS_DEFAULT);
     this.startFromEnd = context.getBoolean(START_FROM_END_KEY, START_FROM_END_DEFAULT);
+    this.queueCapacity = context.getInteger(QUEUE_CAPACITY_KEY, QUEUE_CAPACITY_DEFAULT);
+    this.batchSize = context.getInteger(BATCH_SIZE_KEY, BATCH_SIZE_DEFAULT);
+    this.batchLingerMillis = context.getLong(BATCH_LINGER_MILLIS_KEY, BATCH_LINGER_MILLIS_DEFAULT);
+    this.poolSize = context.getInteger(POOL_SIZE_KEY, POOL_SIZE_DEFAULT);
+    this.discoveryIntervalMillis = context.getLong(DISCOVERY_INTERVAL_MILLIS_KEY, DISCOVERY_INTERVAL_MILLIS_DEFAULT);
+    this.positionFlushIntervalMillis = context.getLong(POSITION_FLUSH_INTERVAL_MILLIS_KEY, POSITION_FLUSH_INTERVAL_MILLIS_DEFAULT);
+    this.positionFile = new PositionFile(new File(context.getString(POSITION_FILE_KEY,
+        POSITION_FILE_DIRECTORY_DEFAULT + File.separator + "filesource-" + getName() + ".positions.json")));
+
+    this.bufferSize = context.getInteger(BUFFER_SIZE_KEY, BUFFER_SIZE_DEFAULT);
+    this.reOpen = context.getBoolean(REOPEN_KEY, REOPEN_DEFAULT);
+    this.maxBufferedBytes = context.getLong(MAX_BUFFERED_BYTES_KEY, MAX_BUFFERED_BYTES_DEFAULT);
+    this.initialBackoffMillis = context.getLong(INITIAL_BACKOFF_MILLIS_KEY, INITIAL_BACKOFF_MILLIS_DEFAULT);
+    this.maxBackoffMillis = context.getLong(MAX_BACKOFF_MILLIS_KEY, MAX_BACKOFF_MILLIS_DEFAULT);
+
+    final String startPattern = context.getString(MULTILINE_START_PATTERN_KEY);
+    final String continuationPattern = context.getString(MULTILINE_CONTINUATION_PATTERN_KEY);
+
+    this.multilineStartPattern = StringUtils.isNotBlank(startPattern) ? Pattern.compile(startPattern) : null;
+    this.multilineContinuationPattern = StringUtils.isNotBlank(continuationPattern) ? Pattern.compile(continuationPattern) : null;
+    this.multilineMaxLines = context.getInteger(MULTILINE_MAX_LINES_KEY, MULTILINE_MAX_LINES_DEFAULT);
+    this.multilineMaxBytes = context.getInteger(MULTILINE_MAX_BYTES_KEY, MULTILINE_MAX_BYTES_DEFAULT);
+    this.multilineFlushTimeoutMillis = context.getLong(MULTILINE_FLUSH_TIMEOUT_MILLIS_KEY, MULTILINE_FLUSH_TIMEOUT_MILLIS_DEFAULT);
+
+    this.maxLinesPerSecond = context.getLong(MAX_LINES_PER_SECOND_KEY, MAX_LINES_PER_SECOND_DEFAULT);
+    this.maxBytesPerSecond = context.getLong(MAX_BYTES_PER_SECOND_KEY, MAX_BYTES_PER_SECOND_DEFAULT);
+    this.rateLimitPerFile = context.getBoolean(RATE_LIMIT_PER_FILE_KEY, RATE_LIMIT_PER_FILE_DEFAULT);
+    this.schedulingQuantumBytes = context.getInteger(SCHEDULING_QUANTUM_BYTES_KEY, SCHEDULING_QUANTUM_BYTES_DEFAULT);
+    this.lagCheckIntervalMillis = context.getLong(LAG_CHECK_INTERVAL_MILLIS_KEY, LAG_CHECK_INTERVAL_MILLIS_DEFAULT);
+
+    final String charsetName = context.getString(CHARSET_KEY, CHARSET_DEFAULT);
+
+    Preconditions.checkState(Charset.isSupported(charsetName), "Unsupported " + CHARSET_KEY + ": " + charsetName);
+
+    this.charset = Charset.forName(charsetName);
+
+    // Lines are split on the raw bytes, so a line feed must be the single byte 0x0A in this charset
+    Preconditions.checkState(Arrays.equals("\n".getBytes(charset), new byte[] { '\n' }),
+        CHARSET_KEY + " " + charsetName + " is not ASCII compatible");
+
+    Preconditions.checkState(bufferSize > 0, BUFFER_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(delayMillis > 0, DELAY_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(maxDelayMillis >= delayMillis, MAX_DELAY_MILLIS_KEY + " must not be less than " + DELAY_MILLIS_KEY);
+    Preconditions.checkState(queueCapacity > 0, QUEUE_CAPACITY_KEY + " must be greater than zero");
+    Preconditions.checkState(batchSize > 0, BATCH_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(batchLingerMillis >= 0, BATCH_LINGER_MILLIS_KEY + " must not be negative");
+    Preconditions.checkState(poolSize > 0, POOL_SIZE_KEY + " must be greater than zero");
+    Preconditions.checkState(discoveryIntervalMillis > 0, DISCOVERY_INTERVAL_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(positionFlushIntervalMillis > 0, POSITION_FLUSH_INTERVAL_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(maxBufferedBytes > 0, MAX_BUFFERED_BYTES_KEY + " must be greater than zero");
+    Preconditions.checkState(initialBackoffMillis > 0, INITIAL_BACKOFF_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(maxBackoffMillis >= initialBackoffMillis, MAX_BACKOFF_MILLIS_KEY + " must not be less than " + INITIAL_BACKOFF_MILLIS_KEY);
+    Preconditions.checkState(multilineMaxLines > 0, MULTILINE_MAX_LINES_KEY + " must be greater than zero");
+    Preconditions.checkState(multilineMaxBytes > 0, MULTILINE_MAX_BYTES_KEY + " must be greater than zero");
+    Preconditions.checkState(multilineFlushTimeoutMillis > 0, MULTILINE_FLUSH_TIMEOUT_MILLIS_KEY + " must be greater than zero");
+    Preconditions.checkState(maxLinesPerSecond >= 0, MAX_LINES_PER_SECOND_KEY + " must not be negative");
+    Preconditions.checkState(maxBytesPerSecond >= 0, MAX_BYTES_PER_SECOND_KEY + " must not be negative");
+    Preconditions.checkState(schedulingQuantumBytes > 0, SCHEDULING_QUANTUM_BYTES_KEY + " must be greater than zero");
+    Preconditions.checkState(lagCheckIntervalMillis > 0, LAG_CHECK_INTERVAL_MILLIS_KEY + " must be greater than zero");
 
     if (sourceCounter == null) {
-      sourceCounter = new SourceCounter(getName());
+      sourceCounter = new FileSourceCounter(getName());
     }
   }
 
+  /**
+   * Builds the matcher for file names in the directory <p>
+   *
+   * Patterns may use the "glob:" or "regex:" syntax prefixes; glob is assumed when there is no prefix
+   */
+  static PathMatcher createFileNameMatcher(final String fileNamePattern) {
+
+    final String syntaxAndPattern = (fileNamePattern.startsWith(GLOB_SYNTAX) || fileNamePattern.startsWith(REGEX_SYNTAX))
+        ? fileNamePattern : GLOB_SYNTAX + fileNamePattern;
+
+    return FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+  }
+
   @Override
   public synchronized void start() {
 
     logger.info("FileSource source {} starting.", getName());
-    logger.info("FileSource source starting with file path: {}", filePath);
+    logger.info("FileSource source starting with directory: {}", directory);
 
-    this.queue = new LinkedList<String>();
-    this.mutex = new Semaphore(1, true);
+    /* The readers for all the files and the directory scanner share a fixed size pool */
+    this.fileTailerExecutor = Executors.newScheduledThreadPool(poolSize,
+        new ThreadFactoryBuilder().setNameFormat("FileSource-" + getName() + "-reader-%d").build());
 
-    /* Creates a single-threaded executor that can schedule commands
-     * to run after a given delay */
-    this.fileTailerExecutor = Executors.newSingleThreadScheduledExecutor();
-    this.eventExtractorExecutor = Executors.newSingleThreadScheduledExecutor();
+    this.eventExtractorExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("FileSource-" + getName() + "-consumer").build());
 
-    final FileSourceEventProducer listener = new FileSourceEventProducer();
+    this.directoryScanner = new FileSourceDirectoryScanner();
+    final FileSourceEventConsumer eventExtractorCommand = new FileSourceEventConsumer();
+    final FileSourcePositionWriter positionWriter = new FileSourcePositionWriter();
+    final FileSourceLagMonitor lagMonitor = new FileSourceLagMonitor();
+
+    this.running = true;
+
+    positionFile.load();
+
+    if (fileNotifications) {
+      startWatching();
+    }
 
-    this.tailer = new Tailer(new File(filePath), listener, delayMillis, startFromEnd);
-    FileSourceEventConsumer eventExtractorCommand = new FileSourceEventConsumer();
+    // Files that already exist when the source starts honour startFromEnd unless they have a saved position
+    directoryScanner.scan(startFromEnd);
 
     /**
      * Creates and executes a periodic action that becomes enabled first
@@ -109,16 +397,68 @@ public class FileSource extends AbstractSource implements Configurable, EventDri
      * encounters an exception, subsequent executions are suppressed.
      * Otherwise, the task will only terminate via cancellation or
      * termination of the executor. */
-    this.fileTailerExecutor.scheduleWithFixedDelay(tailer, INITIAL_DELAY_MS, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
-    this.eventExtractorExecutor.scheduleWithFixedDelay(eventExtractorCommand, INITIAL_DELAY_MS, POLL_DELAY_MS, TimeUnit.MILLISECONDS);
+    this.fileTailerExecutor.scheduleWithFixedDelay(directoryScanner, discoveryIntervalMillis, discoveryIntervalMillis, TimeUnit.MILLISECONDS);
+    this.eventExtractorExecutor.execute(eventExtractorCommand);
+    this.fileTailerExecutor.scheduleWithFixedDelay(positionWriter, positionFlushIntervalMillis, positionFlushIntervalMillis, TimeUnit.MILLISECONDS);
+    this.fileTailerExecutor.scheduleWithFixedDelay(lagMonitor, lagCheckIntervalMillis, lagCheckIntervalMillis, TimeUnit.MILLISECONDS);
 
     super.start();
     sourceCounter.start();
   }
 
+  /**
+   * Registers the directory with the file system's WatchService (inotify on Linux) <p>
+   *
+   * Falls back to polling alone if the directory cannot be watched
+   */
+  private void startWatching() {
+
+    try {
+
+      this.watchService = FileSystems.getDefault().newWatchService();
+
+      directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+      this.fileWatcherExecutor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("FileSource-" + getName() + "-watcher").build());
+
+      this.fileWatcherExecutor.execute(new FileSourceDirectoryWatcher());
+
+    } catch (IOException e) {
+
+      logger.warn("Unable to watch directory " + directory + " for changes. Falling back to polling", e);
+      stopWatching();
+    }
+  }
+
+  private void stopWatching() {
+
+    if (watchService != null) {
+
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        logger.info("Unable to close the watch service", e);
+      }
+
+      watchService = null;
+    }
+
+    if (fileWatcherExecutor != null) {
+      fileWatcherExecutor.shutdownNow();
+      fileWatcherExecutor = null;
+    }
+  }
+
   @Override
   public synchronized void stop() {
 
+    this.running = false;
+
+    ///////////////////////////////////////////////////////////////////////////
+    stopWatching();
+
     ///////////////////////////////////////////////////////////////////////////
     this.fileTailerExecutor.shutdown();
 
@@ -131,6 +471,7 @@ public class FileSource extends AbstractSource implements Configurable, EventDri
     this.fileTailerExecutor.shutdownNow();
 
     //////////////////////////////////////////////////////////////////////'////
+    wakeUpConsumer();
     this.eventExtractorExecutor.shutdown();
 
     try {
@@ -142,159 +483,1025 @@ public class FileSource extends AbstractSource implements Configurable, EventDri
     this.eventExtractorExecutor.shutdownNow();
 
     ///////////////////////////////////////////////////////////////////////////
+    // Everything accepted by the channel up to this point is recorded before the files are released
+    positionFile.write(tailedFiles.values());
+
+    for (TailedFile tailedFile : tailedFiles.values()) {
+      tailedFile.close();
+    }
+
+    tailedFiles.clear();
+    producers.clear();
+    fileKeysByPath.clear();
+    pausedProducers.clear();
+    bufferedBytes.set(0L);
+
     super.stop();
     sourceCounter.stop();
 
     logger.info("FileSource {} stopped. Metrics: {}", getName(), sourceCounter);
   }
 
-  private synchronized Event eventSerializer(final String rawEvent) {
+  private Event eventSerializer(final byte[] rawEvent, final TailedFile tailedFile) {
 
     final Map<String,String> headers = new HashMap<String, String>();
 
-    headers.put(FILE_PATH, filePath);
+    headers.put(FILE_PATH, tailedFile.getPath());
+
+    return EventBuilder.withBody(rawEvent, headers);
+  }
+
+  /**
+   * Creates the multiline assembler for a newly tailed file
+   *
+   * @return the assembler or null if multiline assembly is not configured
+   */
+  private MultilineAssembler createMultilineAssembler() {
+
+    if (multilineStartPattern == null && multilineContinuationPattern == null) {
+      return null;
+    }
+
+    return new MultilineAssembler(multilineStartPattern, multilineContinuationPattern,
+        multilineMaxLines, multilineMaxBytes, multilineFlushTimeoutMillis);
+  }
+
+  /**
+   * Creates the rate limits for the whole source or for one file, depending on rateLimitPerFile
+   *
+   * @return the limiter or null if no rate limit is configured
+   */
+  private ThroughputLimiter createThroughputLimiter() {
+
+    if (maxLinesPerSecond == 0L && maxBytesPerSecond == 0L) {
+      return null;
+    }
+
+    return new ThroughputLimiter(maxLinesPerSecond, maxBytesPerSecond);
+  }
+
+  /**
+   * Lets the consumer know that lines have been added to a queue
+   */
+  private void wakeUpConsumer() {
+
+    final Thread thread = consumerThread;
+
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Lets the readers that paused for lack of room carry on if there is room for them now
+   */
+  private void resumePausedProducers() {
+
+    final Iterator<FileSourceEventProducer> iterator = pausedProducers.iterator();
+
+    while (iterator.hasNext()) {
+
+      final FileSourceEventProducer producer = iterator.next();
 
-    return EventBuilder.withBody(rawEvent.getBytes(), headers);
+      if (producer.hasRoom()) {
+        iterator.remove();
+        producer.wakeUp();
+      }
+    }
   }
 
   /**
-   * Extracts the events from the queue
+   * Runs a directory scan on the reader pool as soon as possible
+   */
+  private void submitScan() {
+
+    try {
+      fileTailerExecutor.execute(directoryScanner);
+    } catch (RejectedExecutionException e) {
+      logger.debug("Source is stopping. Skipping directory scan");
+    }
+  }
+
+  /**
+   * Total number of lines waiting in the queues of all the tailed files
+   */
+  private long queueDepth() {
+
+    long depth = 0L;
+
+    for (TailedFile tailedFile : tailedFiles.values()) {
+      depth += tailedFile.getQueue().size();
+    }
+
+    return depth;
+  }
+
+  /**
+   * Extracts the events from the queues of the tailed files
+   *
+   * The extracted events are sent down to the channel in batches of up to batchSize events.
+   * Each batch is committed with a single channel transaction, after which the committed
+   * offsets of the files that contributed to it are moved forward <p>
    *
-   * The extracted events are sent down to the channel
+   * A batch the channel refuses is kept and retried after a delay that starts at
+   * initialBackoffMillis and doubles with every consecutive refusal, up to maxBackoffMillis <p>
+   *
+   * The files take turns filling the batch using deficit round robin: every round each file with
+   * lines waiting is granted schedulingQuantumBytes of credit and hands over lines while its credit
+   * lasts. A file held back by a rate limit is skipped, leaving its share to the other files
    *
    * @author Israel Ekpo <israel@aicer.org>
    */
   private class FileSourceEventConsumer implements Runnable {
 
+    /* Events taken off the queues that have not been accepted by the channel yet */
+    private final List<Event> batch = new ArrayList<Event>(batchSize);
+
+    /* When each event of the pending batch was queued, for the commit latency */
+    private final long[] batchEnqueueNanos = new long[batchSize];
+
+    /* Files that have lines in the pending batch */
+    private final List<TailedFile> batchFiles = new ArrayList<TailedFile>();
+
+    /* Size of the line bodies in the pending batch */
+    private long batchBytes = 0L;
+
+    /* Delay before the pending batch is offered to the channel again, zero if it has not been refused */
+    private long backoffMillis = 0L;
+
+    /* Rate limits of the whole source, null when there are none or they apply to each file */
+    private final ThroughputLimiter sourceLimiter = rateLimitPerFile ? null : createThroughputLimiter();
+
+    /* Where the next round of the scheduler starts, so the files take turns at going first */
+    private int nextFile = 0;
+
+    /* How long until a file held back by a rate limit may hand over lines again, zero if none is held back */
+    private long throttleNanos = 0L;
+
     @Override
     public void run() {
 
-      while(true) {
+      consumerThread = Thread.currentThread();
+
+      while (running) {
+
+        deliverBatches();
+
+        // Sleeps until a reader signals new lines or a rate limit lets lines through again. The timeout is only a safety net
+        LockSupport.parkNanos(this, (throttleNanos > 0L) ? Math.min(throttleNanos, POLL_DELAY_NANOS) : POLL_DELAY_NANOS);
+      }
+
+      consumerThread = null;
+
+      logger.debug("Source is stopping. Shutting down consumer");
+    }
+
+    /**
+     * Sends batches to the channel until the queues are empty
+     */
+    private void deliverBatches() {
+
+      while (running && fillBatch()) {
+
+        final long attemptStart = System.nanoTime();
 
         try {
 
-          logger.debug("Acquiring Mutex in consumer");
-          mutex.acquire();
+          // The events are counted as they enter the batch, and a refused batch only once
+          if (backoffMillis == 0L) {
+            sourceCounter.incrementAppendBatchReceivedCount();
+          }
+
+          logger.debug("Sending batch of {} events from Queue to Channel", batch.size());
+          getChannelProcessor().processEventBatch(batch);
+
+        } catch (ChannelException ce) {
+
+          // A full channel usually keeps the put waiting for its keep-alive before refusing it
+          sourceCounter.addToChannelBlockedNanos(System.nanoTime() - attemptStart);
+          sourceCounter.incrementChannelRejectedCount();
+          backOff();
+          continue;
+        }
+
+        sourceCounter.addToChannelBlockedNanos(System.nanoTime() - attemptStart);
+        sourceCounter.addToEventAcceptedCount(batch.size());
+        sourceCounter.incrementAppendBatchAcceptedCount();
+
+        // The whole batch was committed so it can be discarded
+        logger.debug("Batch processed successfully");
+
+        final long committed = System.nanoTime();
+
+        for (int i = 0; i < batch.size(); i++) {
+          sourceCounter.recordCommitLatency(committed - batchEnqueueNanos[i]);
+        }
+
+        batch.clear();
+        backoffMillis = 0L;
+
+        for (TailedFile tailedFile : batchFiles) {
+          tailedFile.commitPendingOffset();
+        }
+
+        batchFiles.clear();
 
-          if (0 == queue.size()) {
-            break;
+        sourceCounter.setQueueBytes(bufferedBytes.addAndGet(-batchBytes));
+        batchBytes = 0L;
+
+        resumePausedProducers();
+      }
+
+      sourceCounter.setQueueDepth(queueDepth());
+
+      logger.debug("No more events in the queue. Consumer going to sleep");
+    }
+
+    /**
+     * Waits before the refused batch is retried, doubling the wait every time
+     */
+    private void backOff() {
+
+      backoffMillis = (backoffMillis == 0L) ? initialBackoffMillis : Math.min(backoffMillis * 2, maxBackoffMillis);
+
+      logger.warn("Channel is full at the moment. Retrying batch from consumer in {} ms", backoffMillis);
+
+      final long start = System.nanoTime();
+      final long deadline = start + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+      long remaining;
+
+      // Readers keep unparking the consumer, so it parks again until the deadline or until the source stops
+      while (running && (remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(this, remaining);
+      }
+
+      sourceCounter.addToChannelBackoffTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Moves events from the queues into the pending batch <p>
+     *
+     * Stops when the batch is full, or when the queues are empty and the batch
+     * has been lingering for more than batchLingerMillis
+     *
+     * @return true if there is a batch to deliver
+     */
+    private boolean fillBatch() {
+
+      long lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchLingerMillis);
+
+      while (batch.size() < batchSize) {
+
+        final boolean wasEmpty = batch.isEmpty();
+        final int drained = drainQueues();
+
+        if (drained > 0) {
+
+          sourceCounter.addToEventReceivedCount(drained);
+
+          if (wasEmpty) {
+            lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchLingerMillis);
           }
 
-          try {
+          continue;
+        }
 
-            sourceCounter.addToEventReceivedCount(1);
-            sourceCounter.incrementAppendBatchReceivedCount();
+        final long remaining = lingerDeadline - System.nanoTime();
+
+        if (batch.isEmpty() || remaining <= 0) {
+          break;
+        }
+
+        LockSupport.parkNanos(this, Math.min(remaining, LINGER_PARK_NANOS));
+      }
+
+      return !batch.isEmpty();
+    }
+
+    /**
+     * Takes lines from the tailed files into the batch in rounds of deficit round robin <p>
+     *
+     * Rounds go on while a file with lines waiting is not held back by a rate limit, even if none of its lines fit
+     * in the round, so that a line larger than the quantum is handed over once the file has saved up enough credit
+     *
+     * @return the number of events added to the batch
+     */
+    private int drainQueues() {
 
-            logger.debug("Sending event from Queue to Channel");
-            getChannelProcessor().processEvent(eventSerializer(queue.peek()));
+      final List<TailedFile> files = new ArrayList<TailedFile>(tailedFiles.values());
+      final int fileCount = files.size();
 
-          } catch (ChannelException ce) {
+      int drained = 0;
+      boolean eligible = true;
+
+      throttleNanos = 0L;
+
+      while (eligible && batch.size() < batchSize) {
+
+        eligible = false;
+
+        for (int i = 0; i < fileCount && batch.size() < batchSize; i++) {
+
+          final TailedFile tailedFile = files.get((nextFile + i) % fileCount);
+          final RingBuffer<TailedLine> queue = tailedFile.getQueue();
+
+          if (queue.isEmpty()) {
+            // Credit is not saved up while a file has nothing to send
+            tailedFile.setDeficit(0L);
+            continue;
+          }
 
-            logger.warn("Channel is full at the moment. Releasing mutex from consumer");
-            mutex.release();
+          if (!hasCapacity(tailedFile)) {
             continue;
           }
 
-          sourceCounter.addToEventAcceptedCount(1);
-          sourceCounter.incrementAppendBatchAcceptedCount();
+          eligible = true;
 
-          // If the item was successfully processed then remove it
-          logger.debug("Event processed successfully. Deleting from consumer queue");
-          queue.poll();
+          long deficit = tailedFile.getDeficit() + schedulingQuantumBytes;
+          TailedLine rawEvent;
 
-        } catch (Throwable e) {
+          while (batch.size() < batchSize && (rawEvent = queue.peek()) != null) {
 
-        } finally {
+            // The line terminator is counted so that empty lines are not free
+            final int cost = rawEvent.getBody().length + 1;
 
-          logger.debug("Releasing Mutex from consumer");
-          mutex.release();
+            if (cost > deficit || !hasCapacity(tailedFile)) {
+              break;
+            }
+
+            queue.poll();
+            deficit -= cost;
+            acquire(tailedFile, rawEvent.getBody().length);
+
+            batchEnqueueNanos[batch.size()] = rawEvent.getEnqueueNanos();
+            batch.add(eventSerializer(rawEvent.getBody(), tailedFile));
+            tailedFile.setPendingOffset(rawEvent);
+            batchBytes += rawEvent.getBody().length;
+            drained++;
+
+            if (!batchFiles.contains(tailedFile)) {
+              batchFiles.add(tailedFile);
+            }
+          }
+
+          tailedFile.setDeficit(queue.isEmpty() ? 0L : deficit);
         }
       }
 
-      logger.debug("No more events in the queue. Shutting down consumer");
+      nextFile = (fileCount > 0) ? (nextFile + 1) % fileCount : 0;
+
+      return drained;
     }
-  }
 
+    /**
+     * Whether the rate limits let a line of the file through, recording how long to wait if they do not
+     */
+    private boolean hasCapacity(final TailedFile tailedFile) {
+
+      final ThroughputLimiter limiter = (sourceLimiter != null) ? sourceLimiter : tailedFile.getLimiter();
+
+      if (limiter == null) {
+        return true;
+      }
+
+      final long now = System.nanoTime();
+
+      if (limiter.hasCapacity(now)) {
+        return true;
+      }
+
+      final long delay = limiter.delayNanos(now);
+
+      throttleNanos = (throttleNanos == 0L) ? delay : Math.min(throttleNanos, delay);
+
+      return false;
+    }
+
+    private void acquire(final TailedFile tailedFile, final int length) {
+
+      final ThroughputLimiter limiter = (sourceLimiter != null) ? sourceLimiter : tailedFile.getLimiter();
+
+      if (limiter != null) {
+        limiter.acquire(length);
+      }
+    }
+  }
 
   /**
-   * Listens to Events produced by the Tailer
+   * Looks for files in the directory that match the file name pattern <p>
+   *
+   * Starts a reader on the shared pool for every new file, follows tailed files that have been
+   * renamed, orphans those no longer found under a matching name and retires them once they have
+   * been read to the end and their queues have been drained <p>
+   *
+   * A new file whose leading bytes match the content of a tailed file, as left behind by copytruncate
+   * rotation, starts where the original was read up to when it was truncated
    *
-   * @author Israel Ekpo <israel@aicer.org>
    */
-  public class FileSourceEventProducer implements TailerListener {
+  private class FileSourceDirectoryScanner implements Runnable {
+
+    /* Content of tailed files before they were truncated, handed over by the readers */
+    private final Queue<FilePosition> truncatedContents = new ConcurrentLinkedQueue<FilePosition>();
+
+    /* When each copy of a tailed file was first seen, keyed by file key. It waits for the original to be truncated */
+    private final Map<String, Long> pendingCopies = new HashMap<String, Long>();
+
+    @Override
+    public void run() {
+
+      try {
+        scan(false);
+      } catch (Throwable t) {
+        // An exception here would suppress all the subsequent scans
+        logger.error("Unable to scan directory " + directory + " for files to tail", t);
+      }
+    }
 
     /**
-     * The tailer will call this method during construction,
-     * giving the listener a method of stopping the tailer.
-     * @param tailer the tailer.
+     * Remembers the content a tailed file had before it was truncated until its copy shows up
      */
-    @Override
-    public void init(Tailer tailer) {
+    public void addTruncatedContent(final FilePosition content) {
+
+      truncatedContents.add(content);
+
+      while (truncatedContents.size() > MAX_TRUNCATED_CONTENTS) {
+        truncatedContents.poll();
+      }
+    }
+
+    private synchronized void scan(final boolean initialScan) {
+
+      final File[] candidates = directory.listFiles();
+
+      if (candidates == null) {
+        logger.warn("Directory {} could not be listed", directory);
+      } else {
+
+        final Map<String, File> matchingFiles = new HashMap<String, File>();
 
+        for (File candidate : candidates) {
+
+          if (candidate.isFile() && fileNameMatcher.matches(candidate.toPath().getFileName())) {
+
+            final String fileKey = TailedFile.fileKey(candidate);
+
+            if (fileKey != null) {
+              matchingFiles.put(fileKey, candidate);
+            }
+          }
+        }
+
+        for (Map.Entry<String, File> matchingFile : matchingFiles.entrySet()) {
+
+          final TailedFile tailedFile = tailedFiles.get(matchingFile.getKey());
+
+          if (tailedFile == null) {
+            startTailing(matchingFile.getKey(), matchingFile.getValue(), initialScan);
+          } else if (!tailedFile.getFile().equals(matchingFile.getValue())) {
+            logger.info("File {} has been renamed to {}. Still tailing it", tailedFile.getPath(), matchingFile.getValue());
+            follow(tailedFile, matchingFile.getValue());
+          }
+        }
+
+        File[] currentEntries = null;
+
+        for (TailedFile tailedFile : tailedFiles.values()) {
+
+          if (tailedFile.isFinished() || matchingFiles.containsKey(tailedFile.getFileKey())) {
+            continue;
+          }
+
+          // Renamed to a name that does not match or deleted. It may still have lines left to read.
+          // The directory is listed again since it may have been renamed while it was being scanned
+          if (currentEntries == null) {
+            currentEntries = directory.listFiles();
+          }
+
+          final File renamedFile = (currentEntries != null) ? findFile(currentEntries, tailedFile.getFileKey()) : null;
+
+          if (renamedFile != null && !renamedFile.equals(tailedFile.getFile())) {
+            follow(tailedFile, renamedFile);
+          }
+
+          if (!tailedFile.isOrphaned()) {
+
+            logger.info("File {} is no longer found under a matching name. Reading it to the end", tailedFile.getPath());
+
+            tailedFile.orphan();
+            producers.get(tailedFile.getFileKey()).wakeUp();
+          }
+        }
+
+        pendingCopies.keySet().retainAll(matchingFiles.keySet());
+      }
+
+      final Iterator<TailedFile> iterator = tailedFiles.values().iterator();
+
+      while (iterator.hasNext()) {
+
+        final TailedFile tailedFile = iterator.next();
+
+        if (tailedFile.isFinished() && tailedFile.getQueue().isEmpty()) {
+
+          producers.remove(tailedFile.getFileKey()).cancel();
+          fileKeysByPath.remove(tailedFile.getPath(), tailedFile.getFileKey());
+          iterator.remove();
+
+          logger.info("Stopped tailing file {}", tailedFile.getPath());
+        }
+      }
+
+      sourceCounter.setQueueCapacity((long) queueCapacity * tailedFiles.size());
+    }
+
+    private void startTailing(final String fileKey, final File file, final boolean initialScan) {
+
+      final TailedFile tailedFile = new TailedFile(file, fileKey, queueCapacity, charset, reOpen, createMultilineAssembler());
+      final long startOffset;
+
+      if (initialScan) {
+
+        startOffset = positionFile.resolveStartOffset(tailedFile, startFromEnd ? file.length() : 0L);
+
+      } else {
+
+        final long length = file.length();
+
+        // The file may be a copy that has only just been created. Its content decides where it starts
+        if (length == 0L) {
+          return;
+        }
+
+        final Long leadingChecksum = TailedFile.checksum(file, PositionFile.FINGERPRINT_SIZE);
+        final FilePosition truncatedContent = (leadingChecksum != null) ? takeTruncatedContent(leadingChecksum) : null;
+        final TailedFile original = (truncatedContent == null) ? findOriginal(fileKey, file, leadingChecksum) : null;
+
+        if (truncatedContent != null) {
+
+          startOffset = Math.min(truncatedContent.getOffset(), length);
+          logger.info("File {} is a copy of {} before it was truncated. Reading it from offset {}",
+              new Object[] { file, truncatedContent.getPath(), startOffset });
+
+        } else if (original != null) {
+
+          final Long firstSeen = pendingCopies.get(fileKey);
+
+          // The original is usually truncated right after it has been copied
+          if (firstSeen == null || System.nanoTime() - firstSeen.longValue()
+              < TimeUnit.MILLISECONDS.toNanos(COPY_WAIT_INTERVALS * discoveryIntervalMillis)) {
+
+            if (firstSeen == null) {
+              pendingCopies.put(fileKey, System.nanoTime());
+              logger.debug("File {} is a copy of {}. Waiting for the original to be truncated", file, original.getPath());
+            }
+
+            return;
+          }
+
+          startOffset = Math.min(original.getCommittedOffset(), length);
+          logger.info("File {} is a copy of {}. Reading it from offset {}", new Object[] { file, original.getPath(), startOffset });
+
+        } else {
+
+          // Files created after the source started are always read from the beginning
+          startOffset = positionFile.resolveStartOffset(tailedFile, 0L);
+        }
+      }
+
+      tailedFile.seek(startOffset);
+      pendingCopies.remove(fileKey);
+
+      if (rateLimitPerFile) {
+        tailedFile.setLimiter(createThroughputLimiter());
+      }
+
+      final FileSourceEventProducer producer = new FileSourceEventProducer(tailedFile);
+
+      tailedFiles.put(fileKey, tailedFile);
+      producers.put(fileKey, producer);
+      fileKeysByPath.put(file.getPath(), fileKey);
+      producer.start();
+
+      logger.info("Tailing file {}", file);
+    }
+
+    private void follow(final TailedFile tailedFile, final File file) {
+
+      // The old path may already lead to the file that replaced it
+      fileKeysByPath.remove(tailedFile.getPath(), tailedFile.getFileKey());
+      tailedFile.setFile(file);
+      fileKeysByPath.put(file.getPath(), tailedFile.getFileKey());
     }
 
     /**
-     * This method is called if the tailed file is not found.
-     * <p>
-     * <b>Note:</b> this is called from the tailer thread.
+     * Finds the file with the given file key among the entries of the directory
      */
-    @Override
-    public void fileNotFound() {
-      logger.warn("File " + tailer.getFile().getName() + " could not be found");
+    private File findFile(final File[] candidates, final String fileKey) {
+
+      for (File candidate : candidates) {
+        if (candidate.isFile() && fileKey.equals(TailedFile.fileKey(candidate))) {
+          return candidate;
+        }
+      }
+
+      return null;
     }
 
     /**
-     * Called if a file rotation is detected.
-     *
-     * This method is called before the file is reopened, and fileNotFound may
-     * be called if the new file has not yet been created.
-     * <p>
-     * <b>Note:</b> this is called from the tailer thread.
+     * Finds the truncated content whose leading bytes have the given checksum
      */
-    @Override
-    public void fileRotated() {
-      logger.info("File " + tailer.getFile().getName() + " has been rotated");
+    private FilePosition takeTruncatedContent(final long leadingChecksum) {
+
+      final Iterator<FilePosition> iterator = truncatedContents.iterator();
+
+      while (iterator.hasNext()) {
+
+        final FilePosition content = iterator.next();
+
+        if (content.getFingerprintLength() == PositionFile.FINGERPRINT_SIZE && content.getFingerprint() == leadingChecksum) {
+          iterator.remove();
+          return content;
+        }
+      }
+
+      return null;
     }
 
     /**
-     * Handles a line from a Tailer.
-     * <p>
-     * <b>Note:</b> this is called from the tailer thread when a log event is detected
-     * @param line the line.
+     * Finds another tailed file that the given file is a copy of, or may be a partial copy of
+     *
+     * @param leadingChecksum checksum of the first FINGERPRINT_SIZE bytes of the file, null if it is shorter
      */
+    private TailedFile findOriginal(final String fileKey, final File file, final Long leadingChecksum) {
+
+      final int length = (int) Math.min(file.length(), PositionFile.FINGERPRINT_SIZE);
+      final Long partialChecksum = (leadingChecksum == null) ? TailedFile.checksum(file, length) : null;
+
+      for (TailedFile tailedFile : tailedFiles.values()) {
+
+        final FilePosition position = tailedFile.getCommittedPosition();
+
+        if (fileKey.equals(tailedFile.getFileKey()) || position.getFingerprintLength() < PositionFile.FINGERPRINT_SIZE) {
+          continue;
+        }
+
+        if (leadingChecksum != null) {
+          if (position.getFingerprint() == leadingChecksum.longValue()) {
+            return tailedFile;
+          }
+        } else if (partialChecksum != null && partialChecksum.equals(TailedFile.checksum(tailedFile.getFile(), length))) {
+          // Still being copied
+          return tailedFile;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * Periodically saves the committed offsets of the tailed files to the position file <p>
+   *
+   * Runs on the reader pool so that the consumer never waits for disk writes
+   *
+   */
+  private class FileSourcePositionWriter implements Runnable {
+
     @Override
-    public void handle(String rawEvent) {
+    public void run() {
 
-      logger.debug("Adding incoming event to the queue in producer");
+      try {
+        positionFile.write(tailedFiles.values());
+      } catch (Throwable t) {
+        // An exception here would suppress all the subsequent writes
+        logger.error("Unable to save positions to " + positionFile.getFile(), t);
+      }
+    }
+  }
+
+  /**
+   * Periodically measures how far the source lags behind the tailed files <p>
+   *
+   * A file lags by the bytes past the offset the channel has accepted, whether they are
+   * still in the file or waiting in memory. Also refreshes the queue depth, which the
+   * consumer only updates when it runs out of lines
+   *
+   */
+  private class FileSourceLagMonitor implements Runnable {
+
+    @Override
+    public void run() {
 
       try {
 
-        logger.debug("Acquiring Mutex for event queue in producer");
-        mutex.acquire();
+        long total = 0L;
+        long max = 0L;
+        final StringBuilder byFile = new StringBuilder();
 
-        logger.debug("Adding incoming event to the queue in producer");
-        queue.add(rawEvent);
+        for (TailedFile tailedFile : tailedFiles.values()) {
 
-      } catch (Throwable e) {
+          final long behind = Math.max(tailedFile.getFile().length() - tailedFile.getCommittedOffset(), 0L);
 
-      } finally {
+          if (behind == 0L) {
+            continue;
+          }
 
-        logger.debug("releasing Mutex from producer");
-        mutex.release();
+          total += behind;
+          max = Math.max(max, behind);
+
+          if (byFile.length() > 0) {
+            byFile.append(", ");
+          }
+
+          byFile.append(tailedFile.getPath()).append('=').append(behind);
+        }
+
+        sourceCounter.setBytesBehind(total, max, byFile.toString());
+        sourceCounter.setQueueDepth(queueDepth());
+
+      } catch (Throwable t) {
+        // An exception here would suppress all the subsequent checks
+        logger.error("Unable to measure the lag of the tailed files", t);
       }
+    }
+  }
 
+  /**
+   * Waits for file system notifications about the directory <p>
+   *
+   * Appends wake up the reader of the file right away, while created
+   * and deleted files trigger a directory scan
+   *
+   */
+  private class FileSourceDirectoryWatcher implements Runnable {
+
+    @Override
+    public void run() {
+
+      final WatchService watcher = watchService;
+      final Path directoryPath = directory.toPath();
+
+      while (running) {
+
+        final WatchKey watchKey;
+
+        try {
+          watchKey = watcher.take();
+        } catch (InterruptedException e) {
+          return;
+        } catch (ClosedWatchServiceException e) {
+          return;
+        }
+
+        boolean rescan = false;
+
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+
+            // Some notifications were lost so every file has to be checked
+            for (FileSourceEventProducer producer : producers.values()) {
+              producer.wakeUp();
+            }
+
+            rescan = true;
+            continue;
+          }
+
+          final Path fileName = (Path) event.context();
+          final String fileKey = fileKeysByPath.get(directoryPath.resolve(fileName).toFile().getPath());
+          final FileSourceEventProducer producer = (fileKey != null) ? producers.get(fileKey) : null;
+
+          if (producer != null) {
+            producer.wakeUp();
+          }
+
+          if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY || (producer == null && fileNameMatcher.matches(fileName))) {
+            rescan = true;
+          }
+        }
+
+        watchKey.reset();
+
+        if (rescan) {
+          submitScan();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads new lines from one tailed file into its queue <p>
+   *
+   * Runs on the shared reader pool. It never waits for room in the queue
+   * so a file whose queue is full does not hold on to a pooled thread <p>
+   *
+   * A reader whose queue is full, or that finds maxBufferedBytes of lines already held in memory,
+   * pauses until the consumer has made room: down to half the queue and half of maxBufferedBytes,
+   * so that a paused reader resumes with room for a sizeable read <p>
+   *
+   * Each read schedules the next one. A file with new lines is read again after delayMillis,
+   * while an idle file is read less and less often, down to once every maxDelayMillis.
+   * A file system notification brings the next read forward to right away
+   *
+   * @author Israel Ekpo <israel@aicer.org>
+   */
+  private class FileSourceEventProducer {
+
+    private final TailedFile tailedFile;
+
+    /* Delay before the next read if this one finds nothing new */
+    private long idleDelayMillis = delayMillis;
+
+    private ScheduledFuture<?> nextRead = null;
+
+    /* Numbers the scheduled reads. Only the read numbered queuedRead may start */
+    private long readSequence = 0L;
+
+    /* Number of the read waiting to start, 0 while a read is in progress or none is scheduled */
+    private long queuedRead = 0L;
+
+    private boolean reading = false;
+
+    private boolean wokenUp = false;
+
+    private boolean cancelled = false;
+
+    /* When the reader paused for lack of room, zero while it is not paused */
+    private long pausedSince = 0L;
+
+    public FileSourceEventProducer(final TailedFile tailedFile) {
+      this.tailedFile = tailedFile;
+    }
+
+    public synchronized void start() {
+      scheduleRead(INITIAL_DELAY_MS);
     }
 
     /**
-     * Handles an Exception .
-     * <p>
-     * <b>Note:</b> this is called from the tailer thread.
-     * @param ex the exception.
+     * Reads the file as soon as possible. Called when the file system reports a change <p>
+     *
+     * A read that is waiting to start is replaced with an immediate one. Cancelling it does not stop it if it
+     * has just started, but it is no longer the queued read and returns without reading. A read in progress
+     * schedules the next one itself, so that at most one read of the file runs at any time
      */
-    @Override
-    public void handle(Exception ex) {
-      logger.error("File " + tailer.getFile().getName() + " encountered an exception while tailing");
-      logger.error(ex.getMessage());
+    public synchronized void wakeUp() {
+
+      idleDelayMillis = delayMillis;
+
+      if (reading) {
+        // The read in progress may have missed the change, so read again straight after it
+        wokenUp = true;
+      } else if (queuedRead != 0L) {
+        nextRead.cancel(false);
+        scheduleRead(0L);
+      }
+    }
+
+    /**
+     * Whether a paused reader has enough room to carry on reading
+     */
+    public boolean hasRoom() {
+
+      final RingBuffer<TailedLine> queue = tailedFile.getQueue();
+
+      return queue.size() <= queue.capacity() / 2 && bufferedBytes.get() <= maxBufferedBytes / 2;
+    }
+
+    public synchronized void cancel() {
+
+      cancelled = true;
+      pausedProducers.remove(this);
+
+      if (nextRead != null) {
+        nextRead.cancel(false);
+      }
+    }
+
+    /**
+     * @param sequence the number of the scheduled read
+     */
+    private void read(final long sequence) {
+
+      synchronized (this) {
+
+        // A read that was replaced by another one may still run
+        if (cancelled || sequence != queuedRead) {
+          return;
+        }
+
+        queuedRead = 0L;
+        reading = true;
+        wokenUp = false;
+      }
+
+      int linesRead = 0;
+      boolean paused = true;
+
+      final RingBuffer<TailedLine> queue = tailedFile.getQueue();
+      final long room = maxBufferedBytes - bufferedBytes.get();
+
+      if (room > 0 && queue.size() < queue.capacity()) {
+
+        resumed();
+
+        try {
+
+          linesRead = tailedFile.readLines(readBuffers.get(), room);
+
+          sourceCounter.setQueueBytes(bufferedBytes.addAndGet(tailedFile.getLastReadBytes()));
+
+          logger.debug("Added {} incoming events to the queue in producer", linesRead);
+
+          if (linesRead > 0) {
+            wakeUpConsumer();
+          }
+
+          final FilePosition truncatedContent = tailedFile.takeTruncatedContent();
+
+          // A copy of the old content may be waiting for the truncation to be noticed
+          if (truncatedContent != null) {
+            directoryScanner.addTruncatedContent(truncatedContent);
+            submitScan();
+          }
+
+          paused = queue.size() >= queue.capacity() || tailedFile.getLastReadBytes() >= room;
+
+        } catch (Throwable t) {
+
+          // The file is reopened on the next read
+          logger.error("File " + tailedFile.getPath() + " encountered an exception while tailing", t);
+          tailedFile.close();
+          paused = false;
+        }
+      }
+
+      synchronized (this) {
+
+        reading = false;
+
+        if (paused) {
+
+          if (pausedSince == 0L) {
+            pausedSince = System.nanoTime();
+          }
+
+          pausedProducers.add(this);
+
+          // The consumer may have made room before this reader was registered as paused
+          if (hasRoom()) {
+            wokenUp = true;
+          }
+        }
+
+        if (wokenUp) {
+          scheduleRead(0L);
+        } else if (paused) {
+          // The consumer resumes the reader as soon as there is room. The timeout is only a safety net
+          scheduleRead(maxDelayMillis);
+        } else if (linesRead > 0) {
+          idleDelayMillis = delayMillis;
+          scheduleRead(delayMillis);
+        } else {
+          scheduleRead(idleDelayMillis);
+          idleDelayMillis = Math.min(idleDelayMillis * 2, maxDelayMillis);
+        }
+      }
+    }
+
+    /**
+     * Adds the time spent paused, if any, to the throttled time
+     */
+    private synchronized void resumed() {
+
+      if (pausedSince != 0L) {
+        sourceCounter.addToReaderThrottledTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pausedSince));
+        pausedSince = 0L;
+      }
+    }
+
+    private void scheduleRead(final long delay) {
+
+      if (cancelled || !running) {
+        return;
+      }
+
+      final long sequence = ++readSequence;
+
+      queuedRead = sequence;
+
+      try {
+        nextRead = fileTailerExecutor.schedule(new Runnable() {
+
+          @Override
+          public void run() {
+            read(sequence);
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        queuedRead = 0L;
+        logger.debug("Source is stopping. No more reads of {}", tailedFile.getPath());
+      }
     }
   }
 }
@@ -4,6 +4,28 @@ public final class FileSourceConfigurationConstants {
 
   public static final String FILE_PATH = "path";
 
+  public static final String DIRECTORY_KEY = "directory";
+
+  public static final String FILE_NAME_PATTERN_KEY = "fileNamePattern";
+
+  public static final String FILE_NAME_PATTERN_DEFAULT = "*";
+
+  public static final String POOL_SIZE_KEY = "poolSize";
+
+  public static final int POOL_SIZE_DEFAULT = 2;
+
+  public static final String DISCOVERY_INTERVAL_MILLIS_KEY = "discoveryIntervalMillis";
+
+  public static final long DISCOVERY_INTERVAL_MILLIS_DEFAULT = 5000L;
+
+  public static final String POSITION_FILE_KEY = "positionFile";
+
+  public static final String POSITION_FILE_DIRECTORY_DEFAULT = System.getProperty("user.home") + "/.flume";
+
+  public static final String POSITION_FLUSH_INTERVAL_MILLIS_KEY = "positionFlushIntervalMillis";
+
+  public static final long POSITION_FLUSH_INTERVAL_MILLIS_DEFAULT = 1000L;
+
   public static final String START_FROM_END_KEY = "startFromEnd";
 
   public static final boolean START_FROM_END_DEFAULT = true;
@@ -12,12 +34,112 @@ public final class FileSourceConfigurationConstants {
 
   public static final int DELAY_MILLIS_DEFAULT = 100;
 
+  public static final String MAX_DELAY_MILLIS_KEY = "maxDelayMillis";
+
+  public static final long MAX_DELAY_MILLIS_DEFAULT = 1000L;
+
+  public static final String FILE_NOTIFICATIONS_KEY = "fileNotifications";
+
+  public static final boolean FILE_NOTIFICATIONS_DEFAULT = true;
+
   public static final String BUFFER_SIZE_KEY = "bufferSize";
 
-  public static final int BUFFER_SIZE_DEFAULT = 4096;
+  public static final int BUFFER_SIZE_DEFAULT = 65536;
 
   public static final String REOPEN_KEY = "reOpen";
 
   public static final boolean REOPEN_DEFAULT = false;
 
+  public static final String CHARSET_KEY = "charset";
+
+  public static final String CHARSET_DEFAULT = "UTF-8";
+
+  public static final String QUEUE_CAPACITY_KEY = "queueCapacity";
+
+  public static final int QUEUE_CAPACITY_DEFAULT = 8192;
+
+  public static final String BATCH_SIZE_KEY = "batchSize";
+
+  public static final int BATCH_SIZE_DEFAULT = 100;
+
+  public static final String BATCH_LINGER_MILLIS_KEY = "batchLingerMillis";
+
+  public static final long BATCH_LINGER_MILLIS_DEFAULT = 0L;
+
+  public static final String MAX_BUFFERED_BYTES_KEY = "maxBufferedBytes";
+
+  public static final long MAX_BUFFERED_BYTES_DEFAULT = 64L * 1024L * 1024L;
+
+  public static final String INITIAL_BACKOFF_MILLIS_KEY = "initialBackoffMillis";
+
+  public static final long INITIAL_BACKOFF_MILLIS_DEFAULT = 10L;
+
+  public static final String MAX_BACKOFF_MILLIS_KEY = "maxBackoffMillis";
+
+  public static final long MAX_BACKOFF_MILLIS_DEFAULT = 5000L;
+
+  public static final String MULTILINE_START_PATTERN_KEY = "multilineStartPattern";
+
+  public static final String MULTILINE_CONTINUATION_PATTERN_KEY = "multilineContinuationPattern";
+
+  public static final String MULTILINE_MAX_LINES_KEY = "multilineMaxLines";
+
+  public static final int MULTILINE_MAX_LINES_DEFAULT = 500;
+
+  public static final String MULTILINE_MAX_BYTES_KEY = "multilineMaxBytes";
+
+  public static final int MULTILINE_MAX_BYTES_DEFAULT = 1024 * 1024;
+
+  public static final String MULTILINE_FLUSH_TIMEOUT_MILLIS_KEY = "multilineFlushTimeoutMillis";
+
+  public static final long MULTILINE_FLUSH_TIMEOUT_MILLIS_DEFAULT = 1000L;
+
+  public static final String MAX_LINES_PER_SECOND_KEY = "maxLinesPerSecond";
+
+  public static final long MAX_LINES_PER_SECOND_DEFAULT = 0L;
+
+  public static final String MAX_BYTES_PER_SECOND_KEY = "maxBytesPerSecond";
+
+  public static final long MAX_BYTES_PER_SECOND_DEFAULT = 0L;
+
+  public static final String RATE_LIMIT_PER_FILE_KEY = "rateLimitPerFile";
+
+  public static final boolean RATE_LIMIT_PER_FILE_DEFAULT = false;
+
+  public static final String LAG_CHECK_INTERVAL_MILLIS_KEY = "lagCheckIntervalMillis";
+
+  public static final long LAG_CHECK_INTERVAL_MILLIS_DEFAULT = 1000L;
+
+  public static final String SCHEDULING_QUANTUM_BYTES_KEY = "schedulingQuantumBytes";
+
+  public static final int SCHEDULING_QUANTUM_BYTES_DEFAULT = 16384;
+
+  public static final String CHUNK_SIZE_KEY = "chunkSize";
+
+  public static final long CHUNK_SIZE_DEFAULT = 64L * 1024L * 1024L;
+
+  public static final String CHECKPOINT_FILE_KEY = "checkpointFile";
+
+  public static final String CHECKPOINT_INTERVAL_MILLIS_KEY = "checkpointIntervalMillis";
+
+  public static final long CHECKPOINT_INTERVAL_MILLIS_DEFAULT = 1000L;
+
+  public static final String COMPRESSED_FILE_SUFFIX = ".gz";
+
+  public static final String REPLAY_START_TIME_KEY = "replayStartTime";
+
+  public static final String REPLAY_END_TIME_KEY = "replayEndTime";
+
+  public static final String REPLAY_DATE_FORMAT_KEY = "replayDateFormat";
+
+  public static final String REPLAY_TIMEZONE_KEY = "replayTimezone";
+
+  public static final String REPLAY_TIMEZONE_DEFAULT = "Etc/UTC";
+
+  public static final String REPLAY_TIMESTAMP_PATTERN_KEY = "replayTimestampPattern";
+
+  public static final String REPLAY_INDEX_DIRECTORY_KEY = "replayIndexDirectory";
+
+  public static final String TIMESTAMP_INDEX_SUFFIX = ".tsidx";
+
 }
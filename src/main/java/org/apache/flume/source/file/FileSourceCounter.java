@@ -0,0 +1,175 @@
+package org.apache.flume.source.file;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.instrumentation.SourceCounter;
+
+/**
+ * Metrics for the FileSource <p>
+ *
+ * In addition to the regular SourceCounter attributes, this tracks the
+ * state of the queue sitting between the file tailer and the channel, the
+ * number of bytes of the files not yet accepted by the channel and how long
+ * lines wait between being read and being committed to the channel
+ *
+ */
+public class FileSourceCounter extends SourceCounter implements FileSourceCounterMBean {
+
+  /* Number of lines waiting in the queue the last time the consumer drained it */
+  private final AtomicLong queueDepth = new AtomicLong(0L);
+
+  /* Maximum number of lines the queue can hold */
+  private final AtomicLong queueCapacity = new AtomicLong(0L);
+
+  /* Size of the line bodies held in memory, from the time they are read until the channel accepts them */
+  private final AtomicLong queueBytes = new AtomicLong(0L);
+
+  /* Number of batches the channel refused */
+  private final AtomicLong channelRejectedCount = new AtomicLong(0L);
+
+  /* Milliseconds the consumer spent backing off after the channel refused a batch */
+  private final AtomicLong channelBackoffTime = new AtomicLong(0L);
+
+  /* Milliseconds the readers spent paused because too much data was held in memory, summed over all files */
+  private final AtomicLong readerThrottledTime = new AtomicLong(0L);
+
+  /* Nanoseconds the consumer spent in the channel putting batches, including waits for room in a full channel */
+  private final AtomicLong channelBlockedNanos = new AtomicLong(0L);
+
+  /* Bytes of all the tailed files past the offset accepted by the channel */
+  private final AtomicLong bytesBehind = new AtomicLong(0L);
+
+  /* Bytes behind of the file that lags the most */
+  private final AtomicLong maxBytesBehind = new AtomicLong(0L);
+
+  /* Bytes behind of each file that lags, as "path=bytes" pairs */
+  private volatile String bytesBehindByFile = "";
+
+  /* Time from queueing a line until the channel transaction holding it is committed */
+  private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+  public FileSourceCounter(final String name) {
+    super(name);
+  }
+
+  @Override
+  public long getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  public void setQueueDepth(final long depth) {
+    queueDepth.set(depth);
+  }
+
+  @Override
+  public long getQueueCapacity() {
+    return queueCapacity.get();
+  }
+
+  public void setQueueCapacity(final long capacity) {
+    queueCapacity.set(capacity);
+  }
+
+  @Override
+  public long getQueueBytes() {
+    return queueBytes.get();
+  }
+
+  public void setQueueBytes(final long bytes) {
+    queueBytes.set(bytes);
+  }
+
+  @Override
+  public long getChannelRejectedCount() {
+    return channelRejectedCount.get();
+  }
+
+  public long incrementChannelRejectedCount() {
+    return channelRejectedCount.incrementAndGet();
+  }
+
+  @Override
+  public long getChannelBackoffTime() {
+    return channelBackoffTime.get();
+  }
+
+  public long addToChannelBackoffTime(final long millis) {
+    return channelBackoffTime.addAndGet(millis);
+  }
+
+  @Override
+  public long getReaderThrottledTime() {
+    return readerThrottledTime.get();
+  }
+
+  public long addToReaderThrottledTime(final long millis) {
+    return readerThrottledTime.addAndGet(millis);
+  }
+
+  @Override
+  public long getChannelBlockedTime() {
+    return TimeUnit.NANOSECONDS.toMillis(channelBlockedNanos.get());
+  }
+
+  public long addToChannelBlockedNanos(final long nanos) {
+    return channelBlockedNanos.addAndGet(nanos);
+  }
+
+  @Override
+  public long getBytesBehind() {
+    return bytesBehind.get();
+  }
+
+  @Override
+  public long getMaxBytesBehind() {
+    return maxBytesBehind.get();
+  }
+
+  @Override
+  public String getBytesBehindByFile() {
+    return bytesBehindByFile;
+  }
+
+  /**
+   * Publishes the lag of the tailed files
+   *
+   * @param total bytes behind summed over all the files
+   * @param max bytes behind of the file that lags the most
+   * @param byFile bytes behind of each file that lags
+   */
+  public void setBytesBehind(final long total, final long max, final String byFile) {
+    bytesBehind.set(total);
+    maxBytesBehind.set(max);
+    bytesBehindByFile = byFile;
+  }
+
+  /**
+   * Records the commit latency of a line
+   *
+   * <b>Note:</b> consumer thread only
+   */
+  public void recordCommitLatency(final long nanos) {
+    commitLatency.record(nanos);
+  }
+
+  @Override
+  public long getCommitLatencyP50() {
+    return commitLatency.getPercentile(50.0);
+  }
+
+  @Override
+  public long getCommitLatencyP99() {
+    return commitLatency.getPercentile(99.0);
+  }
+
+  @Override
+  public long getCommitLatencyMax() {
+    return commitLatency.getMax();
+  }
+
+  @Override
+  public String getCommitLatencyHistogram() {
+    return commitLatency.toString();
+  }
+}
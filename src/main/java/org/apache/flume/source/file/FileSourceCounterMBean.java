@@ -0,0 +1,44 @@
+package org.apache.flume.source.file;
+
+import org.apache.flume.instrumentation.SourceCounterMBean;
+
+/**
+ * JMX view of the metrics published by the FileSource <p>
+ *
+ * Extends the standard source metrics with the state of the internal event queue,
+ * the time spent throttled by backpressure and how far the source lags behind the files <p>
+ *
+ * Times are in milliseconds and the commit latency is measured from the moment a line
+ * is queued until the channel transaction holding it is committed
+ *
+ */
+public interface FileSourceCounterMBean extends SourceCounterMBean {
+
+  public long getQueueDepth();
+
+  public long getQueueCapacity();
+
+  public long getQueueBytes();
+
+  public long getChannelRejectedCount();
+
+  public long getChannelBackoffTime();
+
+  public long getReaderThrottledTime();
+
+  public long getChannelBlockedTime();
+
+  public long getBytesBehind();
+
+  public long getMaxBytesBehind();
+
+  public String getBytesBehindByFile();
+
+  public long getCommitLatencyP50();
+
+  public long getCommitLatencyP99();
+
+  public long getCommitLatencyMax();
+
+  public String getCommitLatencyHistogram();
+}
@@ -0,0 +1,117 @@
+package org.apache.flume.source.file;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with power of two millisecond buckets <p>
+ *
+ * Bucket i counts the latencies up to 2^i milliseconds (and above the previous bucket), the last
+ * bucket counts everything longer. Percentiles are reported as the upper bound of the bucket
+ * they fall in, which is precise enough to tell milliseconds from seconds or minutes <p>
+ *
+ * <b>Note:</b> recording is meant for a single thread. Reading is safe from any thread.
+ *
+ */
+public class LatencyHistogram {
+
+  /* Upper bound of the last bounded bucket is 2^(BUCKETS - 2) ms, about 18 minutes */
+  private static final int BUCKETS = 22;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong max = new AtomicLong(0L);
+
+  /**
+   * Records one latency
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(final long nanos) {
+
+    final long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(nanos, 0L));
+
+    // Smallest i such that millis <= 2^i
+    final int bucket = (millis <= 1L) ? 0 : Math.min(64 - Long.numberOfLeadingZeros(millis - 1), BUCKETS - 1);
+
+    counts.incrementAndGet(bucket);
+
+    if (millis > max.get()) {
+      max.set(millis);
+    }
+  }
+
+  public long getCount() {
+
+    long count = 0L;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+
+    return count;
+  }
+
+  /**
+   * @return the longest latency recorded, in milliseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Upper bound of the bucket holding the given percentile
+   *
+   * @param percentile between 0 and 100
+   * @return the latency in milliseconds, zero if nothing has been recorded
+   */
+  public long getPercentile(final double percentile) {
+
+    final long count = getCount();
+
+    if (count == 0L) {
+      return 0L;
+    }
+
+    final long rank = (long) Math.ceil(count * percentile / 100.0);
+    long seen = 0L;
+
+    for (int i = 0; i < BUCKETS - 1; i++) {
+
+      seen += counts.get(i);
+
+      if (seen >= rank) {
+        return Math.min(1L << i, getMax());
+      }
+    }
+
+    return getMax();
+  }
+
+  /**
+   * The non empty buckets as "&lt;=upper bound ms:count" pairs
+   */
+  @Override
+  public String toString() {
+
+    final StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < BUCKETS; i++) {
+
+      final long count = counts.get(i);
+
+      if (count == 0L) {
+        continue;
+      }
+
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+
+      builder.append((i < BUCKETS - 1) ? "<=" + (1L << i) + "ms" : ">" + (1L << (i - 1)) + "ms").append(':').append(count);
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,147 @@
+package org.apache.flume.source.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a stream into lines on the raw bytes <p>
+ *
+ * Lines are returned without their line terminator (LF or CRLF). Unlike the tailer, a final line
+ * without a line terminator is returned as well since the stream is assumed to be complete.
+ * Lines in a charset other than UTF-8 are transcoded to UTF-8 <p>
+ *
+ * <b>Note:</b> not thread safe.
+ *
+ */
+public class LineReader {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte LF = '\n';
+
+  private static final byte CR = '\r';
+
+  private final InputStream in;
+
+  private final Charset charset;
+
+  private final boolean transcode;
+
+  private byte[] buffer;
+
+  /* Start of the first line in the buffer that has not been returned yet */
+  private int lineStart = 0;
+
+  /* Position up to which the buffer has been searched for a line feed */
+  private int scanned = 0;
+
+  private int bufferEnd = 0;
+
+  private boolean endOfStream = false;
+
+  /* Number of bytes of the stream consumed by the lines returned so far */
+  private long offset = 0L;
+
+  /**
+   * @param in the stream to read; it is not closed by this reader
+   * @param bufferSize initial size of the read buffer. It grows for lines that do not fit
+   * @param charset charset of the stream, which must encode the line feed as a single byte
+   */
+  public LineReader(final InputStream in, final int bufferSize, final Charset charset) {
+    this.in = in;
+    this.buffer = new byte[bufferSize];
+    this.charset = charset;
+    this.transcode = !(UTF_8.equals(charset) || Charset.forName("US-ASCII").equals(charset));
+  }
+
+  /**
+   * Reads the next line
+   *
+   * @return the line without its line terminator or null at the end of the stream
+   * @throws IOException if the stream could not be read
+   */
+  public byte[] readLine() throws IOException {
+
+    while (true) {
+
+      for (int i = scanned; i < bufferEnd; i++) {
+
+        if (buffer[i] == LF) {
+
+          final int end = (i > lineStart && buffer[i - 1] == CR) ? i - 1 : i;
+          final byte[] line = copyLine(lineStart, end);
+
+          offset += i + 1 - lineStart;
+          lineStart = i + 1;
+          scanned = lineStart;
+
+          return line;
+        }
+      }
+
+      scanned = bufferEnd;
+
+      if (endOfStream || !fill()) {
+
+        if (lineStart == bufferEnd) {
+          return null;
+        }
+
+        final byte[] line = copyLine(lineStart, bufferEnd);
+
+        offset += bufferEnd - lineStart;
+        lineStart = bufferEnd;
+
+        return line;
+      }
+    }
+  }
+
+  /**
+   * Number of bytes of the stream consumed by the lines returned so far, including their line terminators
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Reads more of the stream into the buffer, making room for it first
+   *
+   * @return false once the end of the stream has been reached
+   */
+  private boolean fill() throws IOException {
+
+    if (lineStart > 0) {
+      System.arraycopy(buffer, lineStart, buffer, 0, bufferEnd - lineStart);
+      bufferEnd -= lineStart;
+      scanned -= lineStart;
+      lineStart = 0;
+    }
+
+    if (bufferEnd == buffer.length) {
+      final byte[] largerBuffer = new byte[buffer.length * 2];
+      System.arraycopy(buffer, 0, largerBuffer, 0, bufferEnd);
+      buffer = largerBuffer;
+    }
+
+    final int bytesRead = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+
+    if (bytesRead < 0) {
+      endOfStream = true;
+      return false;
+    }
+
+    bufferEnd += bytesRead;
+
+    return true;
+  }
+
+  private byte[] copyLine(final int start, final int end) {
+
+    final byte[] line = new byte[end - start];
+    System.arraycopy(buffer, start, line, 0, line.length);
+
+    return transcode ? new String(line, charset).getBytes(UTF_8) : line;
+  }
+}
@@ -0,0 +1,82 @@
+package org.apache.flume.source.file;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.MutableDateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Reads the timestamp of a log line <p>
+ *
+ * The date format uses the same Joda pattern syntax as the dateFormat of the DateInterceptor.
+ * The timestamp is parsed at the start of the line, or at the start of the first capturing
+ * group of the timestamp pattern when one is given. Anything after the timestamp is ignored <p>
+ *
+ * <b>Note:</b> not thread safe. Each reader needs its own parser.
+ *
+ */
+public class LineTimestampParser {
+
+  /* Longest stretch of a line handed to the formatter */
+  private static final int MAX_TIMESTAMP_LENGTH = 128;
+
+  private final DateTimeFormatter formatter;
+
+  private final Matcher timestampMatcher;
+
+  /* Start of the current year, providing the year for formats without one */
+  private final long baseMillis;
+
+  private final MutableDateTime instant;
+
+  /**
+   * @param dateFormat Joda date pattern of the timestamps
+   * @param timezone zone of timestamps without an offset
+   * @param timestampPattern regular expression whose first group starts at the timestamp, null if lines start with it
+   */
+  public LineTimestampParser(final String dateFormat, final String timezone, final Pattern timestampPattern) {
+
+    final DateTimeZone zone = DateTimeZone.forID(timezone);
+
+    this.formatter = DateTimeFormat.forPattern(dateFormat).withZone(zone);
+    this.timestampMatcher = (timestampPattern != null) ? timestampPattern.matcher("") : null;
+    this.baseMillis = new DateTime(zone).withDayOfYear(1).withMillisOfDay(0).getMillis();
+    this.instant = new MutableDateTime(baseMillis, zone);
+  }
+
+  /**
+   * Parses the timestamp of a line
+   *
+   * @param line the line without its line terminator
+   * @return the timestamp in milliseconds since the epoch, or null if the line has no timestamp
+   */
+  public Long parse(final byte[] line) {
+
+    int start = 0;
+
+    if (timestampMatcher != null) {
+
+      if (!timestampMatcher.reset(new ByteCharSequence(line)).find() || timestampMatcher.groupCount() < 1
+          || timestampMatcher.start(1) < 0) {
+        return null;
+      }
+
+      start = timestampMatcher.start(1);
+    }
+
+    final String text = new ByteCharSequence(line, start, Math.min(line.length - start, MAX_TIMESTAMP_LENGTH)).toString();
+
+    instant.setMillis(baseMillis);
+
+    try {
+      return (formatter.parseInto(instant, text, 0) > 0) ? Long.valueOf(instant.getMillis()) : null;
+    } catch (IllegalArgumentException e) {
+      // Field values out of range, e.g. a line that merely looks like a timestamp
+      return null;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package org.apache.flume.source.file;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Joins continuation lines (stack traces, wrapped messages) onto the line that starts the event <p>
+ *
+ * Lines are fed in one at a time as the file is read. A line continues the event in progress when it
+ * matches the continuation pattern, or when there is a start pattern and the line does not match it.
+ * Any other line completes the event in progress and starts the next one <p>
+ *
+ * An event is also completed when adding the line would take it past maxLines or maxBytes, and when
+ * no line has been added to it for flushTimeoutMillis. Only the event in progress is held in memory <p>
+ *
+ * The lines of an event are joined with a line feed. The end offset of an event is the end offset of its last line
+ *
+ * <b>Note:</b> each tailed file has its own assembler and it must only be used by one thread at a time.
+ *
+ */
+public class MultilineAssembler {
+
+  private static final byte LF = '\n';
+
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
+  private final Matcher startMatcher;
+
+  private final Matcher continuationMatcher;
+
+  private final int maxLines;
+
+  private final int maxBytes;
+
+  private final long flushTimeoutNanos;
+
+  /* Lines of the event in progress, separated by line feeds */
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+  private int bufferLength = 0;
+
+  private int lineCount = 0;
+
+  /* End offset of the last line of the event in progress */
+  private long endOffset = 0L;
+
+  /* Generation of the file the event in progress was read from */
+  private int generation = 0;
+
+  /* When the last line was added to the event in progress */
+  private long lastLineNanos = 0L;
+
+  /**
+   * Creates the assembler for one file
+   *
+   * @param startPattern lines matching it start a new event, null if only the continuation pattern is used
+   * @param continuationPattern lines matching it continue the event in progress, null if only the start pattern is used
+   * @param maxLines maximum number of lines in an event
+   * @param maxBytes maximum size of an event in bytes
+   * @param flushTimeoutMillis how long an event waits for more lines before it is completed
+   */
+  public MultilineAssembler(final Pattern startPattern, final Pattern continuationPattern,
+      final int maxLines, final int maxBytes, final long flushTimeoutMillis) {
+
+    if (startPattern == null && continuationPattern == null) {
+      throw new IllegalArgumentException("A start pattern or a continuation pattern is required");
+    }
+
+    this.startMatcher = startPattern != null ? startPattern.matcher("") : null;
+    this.continuationMatcher = continuationPattern != null ? continuationPattern.matcher("") : null;
+    this.maxLines = maxLines;
+    this.maxBytes = maxBytes;
+    this.flushTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis);
+  }
+
+  /**
+   * Adds the next line of the file
+   *
+   * @param line the line without its line terminator
+   * @param lineEndOffset offset just past the line terminator
+   * @return the event this line completed, or null if the line was added to the event in progress
+   */
+  public TailedLine add(final byte[] line, final long lineEndOffset) {
+    return add(line, lineEndOffset, 0);
+  }
+
+  /**
+   * Adds the next line of a file that may be truncated and read again
+   *
+   * @param line the line without its line terminator
+   * @param lineEndOffset offset just past the line terminator
+   * @param lineGeneration generation of the file the line was read from
+   * @return the event this line completed, or null if the line was added to the event in progress
+   */
+  public TailedLine add(final byte[] line, final long lineEndOffset, final int lineGeneration) {
+
+    TailedLine completed = null;
+
+    if (lineCount > 0 && !continues(line)) {
+      completed = flush();
+    }
+
+    append(line);
+
+    this.endOffset = lineEndOffset;
+    this.generation = lineGeneration;
+    this.lastLineNanos = System.nanoTime();
+
+    return completed;
+  }
+
+  /**
+   * Whether there is an event in progress
+   */
+  public boolean hasPending() {
+    return lineCount > 0;
+  }
+
+  /**
+   * Whether the event in progress has waited longer than the flush timeout for more lines
+   */
+  public boolean isExpired() {
+    return lineCount > 0 && System.nanoTime() - lastLineNanos >= flushTimeoutNanos;
+  }
+
+  /**
+   * Completes the event in progress
+   *
+   * @return the event or null if there is no event in progress
+   */
+  public TailedLine flush() {
+
+    if (lineCount == 0) {
+      return null;
+    }
+
+    final byte[] body = new byte[bufferLength];
+    System.arraycopy(buffer, 0, body, 0, bufferLength);
+
+    bufferLength = 0;
+    lineCount = 0;
+
+    return new TailedLine(body, endOffset, generation);
+  }
+
+  /**
+   * Whether the line would continue an event according to the patterns alone, regardless of the size limits
+   */
+  public boolean isContinuation(final byte[] line) {
+
+    final CharSequence text = new ByteCharSequence(line);
+
+    if (continuationMatcher != null && continuationMatcher.reset(text).find()) {
+      return true;
+    }
+
+    return startMatcher != null && !startMatcher.reset(text).find();
+  }
+
+  private boolean continues(final byte[] line) {
+
+    if (lineCount >= maxLines || bufferLength + 1 + line.length > maxBytes) {
+      return false;
+    }
+
+    return isContinuation(line);
+  }
+
+  private void append(final byte[] line) {
+
+    final int separator = (lineCount > 0) ? 1 : 0;
+    final int required = bufferLength + separator + line.length;
+
+    if (required > buffer.length) {
+      final byte[] largerBuffer = new byte[Math.max(buffer.length * 2, required)];
+      System.arraycopy(buffer, 0, largerBuffer, 0, bufferLength);
+      buffer = largerBuffer;
+    }
+
+    if (separator > 0) {
+      buffer[bufferLength++] = LF;
+    }
+
+    System.arraycopy(line, 0, buffer, bufferLength, line.length);
+    bufferLength += line.length;
+    lineCount++;
+  }
+}
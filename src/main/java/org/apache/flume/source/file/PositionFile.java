@@ -0,0 +1,186 @@
+package org.apache.flume.source.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Position File
+ *
+ * Persists the committed read offset of every tailed file as JSON, so the FileSource
+ * resumes exactly where it stopped after a restart instead of re-reading or skipping data <p>
+ *
+ * A saved offset is only reused for the very same file it was recorded for. Positions are looked up
+ * by file key, so a file that was rotated to another name while the source was down still resumes
+ * where it stopped, and a checksum of the first bytes of the file must match as well.
+ * The file is rewritten with StateFiles on every write.
+ *
+ */
+public class PositionFile {
+
+  private static final Logger logger = LoggerFactory.getLogger(PositionFile.class);
+
+  /* Maximum number of leading bytes of a file covered by its fingerprint */
+  public static final int FINGERPRINT_SIZE = 1024;
+
+  private final File file;
+
+  private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+  /* Positions read from disk when the source started, keyed by file key */
+  private final Map<String, FilePosition> savedPositions = new HashMap<String, FilePosition>();
+
+  /* Paths that had a saved position, to tell files created while the source was down from files never seen */
+  private final Set<String> savedPaths = new HashSet<String>();
+
+  /* Content of the last successful write, used to skip writes when nothing moved */
+  private String lastWritten = null;
+
+  public PositionFile(final File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Reads the positions saved by a previous run, if any
+   */
+  public synchronized void load() {
+
+    savedPositions.clear();
+    savedPaths.clear();
+
+    if (!file.exists()) {
+      logger.info("Position file {} does not exist yet", file);
+      return;
+    }
+
+    Reader reader = null;
+
+    try {
+
+      reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+
+      final FilePosition[] positions = gson.fromJson(reader, FilePosition[].class);
+
+      if (positions != null) {
+        for (FilePosition position : positions) {
+          savedPositions.put(position.getFileKey(), position);
+          savedPaths.add(position.getPath());
+        }
+      }
+
+      logger.info("Loaded {} saved positions from {}", savedPositions.size(), file);
+
+    } catch (IOException e) {
+      logger.warn("Position file " + file + " could not be read. Ignoring it", e);
+    } catch (JsonParseException e) {
+      logger.warn("Position file " + file + " is corrupt. Ignoring it", e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Works out where reading of a newly discovered file should start
+   *
+   * @param tailedFile the file about to be tailed
+   * @param defaultOffset the offset to use when there is no saved position for the file or its path
+   * @return the saved offset if one belongs to this file, zero if the path used to hold a different file,
+   * otherwise the default offset
+   */
+  public synchronized long resolveStartOffset(final TailedFile tailedFile, final long defaultOffset) {
+
+    final FilePosition saved = savedPositions.remove(tailedFile.getFileKey());
+
+    if (saved != null) {
+
+      try {
+
+        // The checksum guards against a file key that has been reused for a new file
+        if (saved.getFingerprint() == tailedFile.checksum(saved.getFingerprintLength())) {
+
+          logger.info("Resuming file {} from saved offset {}", tailedFile.getPath(), saved.getOffset());
+          tailedFile.restoreFingerprint(saved.getFingerprintLength(), saved.getFingerprint());
+
+          return saved.getOffset();
+        }
+
+      } catch (IOException e) {
+        logger.warn("Unable to verify the identity of " + tailedFile.getPath(), e);
+      }
+
+      logger.info("File {} is not the file that was saved for its file key. Reading it from the beginning", tailedFile.getPath());
+
+      return 0L;
+    }
+
+    if (savedPaths.contains(tailedFile.getPath())) {
+
+      // Whatever is at this path now was created while the source was down, so none of it has been read
+      logger.info("File {} is not the file that was saved for this path. Reading it from the beginning", tailedFile.getPath());
+
+      return 0L;
+    }
+
+    return defaultOffset;
+  }
+
+  /**
+   * Writes the committed positions of the tailed files, replacing the previous content
+   *
+   * @param tailedFiles the files currently being tailed
+   */
+  public synchronized void write(final Collection<TailedFile> tailedFiles) {
+
+    final List<FilePosition> positions = new ArrayList<FilePosition>(tailedFiles.size());
+
+    for (TailedFile tailedFile : tailedFiles) {
+
+      positions.add(tailedFile.getCommittedPosition());
+    }
+
+    final String content = gson.toJson(positions);
+
+    if (content.equals(lastWritten)) {
+      return;
+    }
+
+    final File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      logger.warn("Unable to create directory {} for the position file", parent);
+      return;
+    }
+
+    try {
+
+      StateFiles.writeAtomically(file, content);
+
+      lastWritten = content;
+
+    } catch (IOException e) {
+      logger.warn("Unable to write position file " + file, e);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.apache.flume.source.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free, single-producer/single-consumer ring buffer <p>
+ *
+ * Exactly one thread may call the producer method ({@link #offer(Object)})
+ * and exactly one thread may call the consumer methods ({@link #peek()}, {@link #poll()}) at any given time.
+ *
+ * Neither side ever takes a lock. The producer publishes a slot with an ordered write of the tail
+ * sequence and the consumer releases it with an ordered write of the head sequence <p>
+ *
+ * When the buffer is full the producer is refused the element and decides itself when to try again.
+ *
+ * @param <E> the type of the elements held in this buffer
+ */
+public class RingBuffer<E> {
+
+  private final Object[] buffer;
+
+  private final int mask;
+
+  private final int capacity;
+
+  /* Sequence of the next slot the consumer will read */
+  private final AtomicLong head = new AtomicLong(0L);
+
+  /* Sequence of the next slot the producer will write */
+  private final AtomicLong tail = new AtomicLong(0L);
+
+  /* Producer's cached copy of the head, refreshed only when the buffer looks full */
+  private long headCache = 0L;
+
+  /* Consumer's cached copy of the tail, refreshed only when the buffer looks empty */
+  private long tailCache = 0L;
+
+  /**
+   * Creates the ring buffer
+   *
+   * @param requestedCapacity the minimum number of elements; it is rounded up to the next power of two
+   */
+  public RingBuffer(final int requestedCapacity) {
+
+    if (requestedCapacity < 1 || requestedCapacity > (1 << 30)) {
+      throw new IllegalArgumentException("Ring buffer capacity must be between 1 and 2^30: " + requestedCapacity);
+    }
+
+    this.capacity = Integer.highestOneBit(requestedCapacity) == requestedCapacity
+        ? requestedCapacity : Integer.highestOneBit(requestedCapacity) << 1;
+    this.mask = capacity - 1;
+    this.buffer = new Object[capacity];
+  }
+
+  /**
+   * Inserts the element if there is room for it
+   *
+   * <b>Note:</b> producer thread only
+   *
+   * @param element the element to add
+   * @return true if the element was added, false if the buffer is full
+   */
+  public boolean offer(final E element) {
+
+    if (element == null) {
+      throw new NullPointerException("Null elements are not permitted");
+    }
+
+    final long currentTail = tail.get();
+
+    if (currentTail - headCache >= capacity) {
+
+      headCache = head.get();
+
+      if (currentTail - headCache >= capacity) {
+        return false;
+      }
+    }
+
+    buffer[(int) currentTail & mask] = element;
+    tail.lazySet(currentTail + 1);
+
+    return true;
+  }
+
+  /**
+   * Retrieves, but does not remove, the oldest element
+   *
+   * <b>Note:</b> consumer thread only
+   *
+   * @return the oldest element or null if the buffer is empty
+   */
+  @SuppressWarnings("unchecked")
+  public E peek() {
+
+    final long currentHead = head.get();
+
+    if (currentHead >= tailCache) {
+
+      tailCache = tail.get();
+
+      if (currentHead >= tailCache) {
+        return null;
+      }
+    }
+
+    return (E) buffer[(int) currentHead & mask];
+  }
+
+  /**
+   * Retrieves and removes the oldest element
+   *
+   * <b>Note:</b> consumer thread only
+   *
+   * @return the oldest element or null if the buffer is empty
+   */
+  public E poll() {
+
+    final E element = peek();
+
+    if (element != null) {
+      final long currentHead = head.get();
+      buffer[(int) currentHead & mask] = null;
+      head.lazySet(currentHead + 1);
+    }
+
+    return element;
+  }
+
+  /**
+   * Number of elements currently in the buffer <p>
+   *
+   * This is a snapshot that may be read from any thread
+   *
+   * @return the number of elements waiting to be consumed
+   */
+  public int size() {
+
+    // Reading the head first guarantees the difference is never negative
+    final long currentHead = head.get();
+    final long currentTail = tail.get();
+
+    return (int) Math.min(currentTail - currentHead, capacity);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+}
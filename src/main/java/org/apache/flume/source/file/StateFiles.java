@@ -0,0 +1,56 @@
+package org.apache.flume.source.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * State Files
+ *
+ * Writes the small JSON files the sources keep their state in (positions, checkpoints and timestamp indexes) <p>
+ *
+ * The content is written to a temporary file next to the target, synced to disk and renamed over the target,
+ * so that a crash or a power loss leaves either the previous content or the new one, never a partial file.
+ *
+ */
+public final class StateFiles {
+
+  private StateFiles() {
+  }
+
+  /**
+   * Replaces the content of a file
+   *
+   * @param file the file to replace, whose directory must exist
+   * @param content the new content, written in UTF-8
+   * @throws IOException if the file could not be written or renamed
+   */
+  public static void writeAtomically(final File file, final String content) throws IOException {
+
+    final File temporaryFile = new File(file.getPath() + ".tmp");
+    final FileOutputStream out = new FileOutputStream(temporaryFile);
+    final Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+
+    try {
+
+      writer.write(content);
+      writer.flush();
+
+      // Without it the rename may reach the disk before the content, leaving an empty file after a power loss
+      out.getFD().sync();
+
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+
+    Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,710 @@
+package org.apache.flume.source.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single file being tailed by the FileSource <p>
+ *
+ * Holds the read position and open channel for the file together with the queue that
+ * carries its lines to the consumer. Reading is done in discrete steps by {@link #readLines(ByteBuffer, long)},
+ * so many files can share a small pool of reader threads instead of owning one each <p>
+ *
+ * The file is read in large blocks through a FileChannel and split into lines on the raw bytes.
+ * Each line becomes an event body as is, without being decoded into a String, unless the file
+ * uses a charset other than UTF-8, in which case the line is transcoded to UTF-8. When the file
+ * has a {@link MultilineAssembler}, continuation lines are joined onto their first line as they
+ * are read and each complete event is queued instead of each line <p>
+ *
+ * A tailed file is identified by its file key (device and inode where available) rather than its path.
+ * The open channel keeps reading the same file when it is renamed or deleted, and the directory
+ * scanner updates the path or marks the file as orphaned once it is no longer found under a matching
+ * name. An orphaned file is read to the end and then finished. Truncation is detected when the file
+ * shrinks below the read position or when its leading bytes no longer match the fingerprint, in which
+ * case the file is read again from the beginning as a new generation <p>
+ *
+ * <b>Note:</b> readLines() must only be called by one thread at a time. The queue is
+ * drained by the consumer thread.
+ *
+ */
+public class TailedFile {
+
+  private static final Logger logger = LoggerFactory.getLogger(TailedFile.class);
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int INITIAL_CARRY_SIZE = 256;
+
+  private static final byte LF = '\n';
+
+  private static final byte CR = '\r';
+
+  /* How long an orphaned file keeps being read after it stopped growing, for writers that have not switched files yet */
+  private static final long ORPHAN_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+  /* Current name of the file. Updated by the directory scanner when the file is renamed */
+  private volatile File file;
+
+  /* Identity of the file (device and inode where available), or its original path on file systems without file keys */
+  private final String fileKey;
+
+  /* Queue where extracted lines are stored until the consumer takes them */
+  private final RingBuffer<TailedLine> queue;
+
+  /* Charset of the file. Lines are passed through untouched when it is UTF-8 or plain ASCII */
+  private final Charset charset;
+
+  private final boolean transcode;
+
+  /* Whether to close the file after every read instead of keeping it open */
+  private final boolean reOpen;
+
+  /* Joins continuation lines into events, null when every line is an event */
+  private final MultilineAssembler multiline;
+
+  /* Event completed by a read that found the queue full. It is queued first by the next read */
+  private TailedLine stashed = null;
+
+  /* Holds the start of a line that continues past the end of the read buffer */
+  private byte[] carry = new byte[INITIAL_CARRY_SIZE];
+
+  private int carryLength = 0;
+
+  private FileChannel channel;
+
+  /* Offset of the first byte that has not been handed over to the queue yet */
+  private long position;
+
+  /* Incremented every time the file is truncated. Offsets are only comparable within a generation */
+  private volatile int generation = 0;
+
+  /* Checksum of the leading bytes read so far, used to recognise the file after a restart or a truncation */
+  private volatile Fingerprint fingerprint = Fingerprint.EMPTY;
+
+  /* End offset and generation of the last line of this file accepted by the channel */
+  private volatile long committedOffset;
+
+  private volatile int committedGeneration = 0;
+
+  /* End offset and generation of the last line of this file in the consumer's pending batch. Consumer thread only */
+  private long pendingOffset;
+
+  private int pendingGeneration = 0;
+
+  /* Bytes the file may still add to the batch in the current round of the consumer's scheduler. Consumer thread only */
+  private long deficit = 0L;
+
+  /* Rate limits of this file, null when it has none of its own. Consumer thread only */
+  private ThroughputLimiter limiter = null;
+
+  /* Content read before the last truncation, until the directory scanner picks it up */
+  private volatile FilePosition truncatedContent = null;
+
+  /* When the directory scanner stopped finding the file under a matching name, zero while it is found */
+  private volatile long orphanedSince = 0L;
+
+  /* Set once the file is gone or orphaned and there is nothing more to read from it */
+  private volatile boolean finished = false;
+
+  /* Size of the line bodies added to the queue by the last read */
+  private long lastReadBytes = 0L;
+
+  /* Number of lines added to the queue by the last read */
+  private int lastReadLines = 0;
+
+  /* When the last read started. Lines are stamped with it as they are queued */
+  private long readNanos = 0L;
+
+  public TailedFile(final File file, final String fileKey, final int queueCapacity, final Charset charset,
+      final boolean reOpen, final MultilineAssembler multiline) {
+    this.file = file;
+    this.fileKey = fileKey;
+    this.queue = new RingBuffer<TailedLine>(queueCapacity);
+    this.charset = charset;
+    this.transcode = !(UTF_8.equals(charset) || Charset.forName("US-ASCII").equals(charset));
+    this.reOpen = reOpen;
+    this.multiline = multiline;
+  }
+
+  /**
+   * Sets the offset reading starts from. Must be called before the first read
+   *
+   * @param offset offset of the first byte to read
+   */
+  public void seek(final long offset) {
+    this.position = offset;
+    this.committedOffset = offset;
+    this.pendingOffset = offset;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getPath() {
+    return file.getPath();
+  }
+
+  /**
+   * Follows the file to its new name after it has been renamed
+   */
+  public void setFile(final File file) {
+    this.file = file;
+  }
+
+  public RingBuffer<TailedLine> getQueue() {
+    return queue;
+  }
+
+  /**
+   * Identity of the file, as reported by the file system (device and inode where available)
+   */
+  public String getFileKey() {
+    return fileKey;
+  }
+
+  /**
+   * Marks the file as no longer found under a matching name. It is read to the end and then finished
+   */
+  public void orphan() {
+
+    if (orphanedSince == 0L) {
+      orphanedSince = System.nanoTime();
+    }
+  }
+
+  public boolean isOrphaned() {
+    return orphanedSince != 0L;
+  }
+
+  /**
+   * Records that a line of this file has been added to the consumer's pending batch
+   *
+   * <b>Note:</b> consumer thread only
+   */
+  public void setPendingOffset(final TailedLine line) {
+    this.pendingOffset = line.getEndOffset();
+    this.pendingGeneration = line.getGeneration();
+  }
+
+  /**
+   * Marks every line in the consumer's pending batch as accepted by the channel
+   *
+   * <b>Note:</b> consumer thread only
+   */
+  public void commitPendingOffset() {
+    this.committedOffset = pendingOffset;
+    this.committedGeneration = pendingGeneration;
+  }
+
+  /**
+   * Scheduling credit of the file in the consumer's deficit round robin, in bytes
+   *
+   * <b>Note:</b> consumer thread only
+   */
+  public long getDeficit() {
+    return deficit;
+  }
+
+  public void setDeficit(final long deficit) {
+    this.deficit = deficit;
+  }
+
+  /**
+   * Rate limits of this file, null when it has none of its own
+   *
+   * <b>Note:</b> consumer thread only
+   */
+  public ThroughputLimiter getLimiter() {
+    return limiter;
+  }
+
+  public void setLimiter(final ThroughputLimiter limiter) {
+    this.limiter = limiter;
+  }
+
+  /**
+   * Offset up to which the current content of the file has been accepted by the channel
+   *
+   * @return the committed offset, or zero if nothing has been committed since the last truncation
+   */
+  public long getCommittedOffset() {
+
+    // The generation is written last and read first, so a current generation implies a current offset
+    final int currentCommittedGeneration = committedGeneration;
+    final long currentCommittedOffset = committedOffset;
+
+    return (currentCommittedGeneration == generation) ? currentCommittedOffset : 0L;
+  }
+
+  /**
+   * Snapshot of the committed position to be saved in the position file
+   *
+   * @return the position
+   */
+  public FilePosition getCommittedPosition() {
+
+    // The fingerprint is reset after the generation changes, so it is read first
+    final Fingerprint currentFingerprint = fingerprint;
+
+    return new FilePosition(getPath(), fileKey, currentFingerprint.length,
+        currentFingerprint.checksum, getCommittedOffset());
+  }
+
+  /**
+   * Hands over the content read before the file was last truncated, so the directory scanner can
+   * recognise a copy of it made by copytruncate rotation
+   *
+   * @return the fingerprint and read offset of the old content, or null if the file has not been truncated since the last call
+   */
+  public FilePosition takeTruncatedContent() {
+
+    final FilePosition content = truncatedContent;
+
+    if (content != null) {
+      truncatedContent = null;
+    }
+
+    return content;
+  }
+
+  /**
+   * Reuses the fingerprint saved in the position file once the file has been recognised
+   */
+  public void restoreFingerprint(final int length, final long checksum) {
+    this.fingerprint = new Fingerprint(length, checksum);
+  }
+
+  /**
+   * Computes the CRC32 checksum of the first bytes of the file
+   *
+   * @param length number of leading bytes to include
+   * @return the checksum
+   * @throws IOException if the file could not be read or is shorter than length
+   */
+  public long checksum(final int length) throws IOException {
+
+    if (channel == null && !open()) {
+      throw new IOException("File " + file + " could not be opened");
+    }
+
+    return checksum(channel, length);
+  }
+
+  /**
+   * Computes the CRC32 checksum of the first bytes of a file that is not being tailed
+   *
+   * @param file the file
+   * @param length number of leading bytes to include
+   * @return the checksum, or null if the file could not be read or is shorter than length
+   */
+  public static Long checksum(final File file, final int length) {
+
+    FileChannel fileChannel = null;
+
+    try {
+      fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      return Long.valueOf(checksum(fileChannel, length));
+    } catch (IOException e) {
+      return null;
+    } finally {
+      IOUtils.closeQuietly(fileChannel);
+    }
+  }
+
+  private static long checksum(final FileChannel fileChannel, final int length) throws IOException {
+
+    final ByteBuffer leadingBytes = ByteBuffer.allocate(length);
+    final CRC32 crc = new CRC32();
+
+    while (leadingBytes.hasRemaining()) {
+      if (fileChannel.read(leadingBytes, leadingBytes.position()) < 0) {
+        throw new EOFException("File is shorter than " + length + " bytes");
+      }
+    }
+
+    crc.update(leadingBytes.array(), 0, length);
+
+    return crc.getValue();
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Size of the line bodies the last call to readLines() added to the queue
+   *
+   * <b>Note:</b> reader thread only
+   */
+  public long getLastReadBytes() {
+    return lastReadBytes;
+  }
+
+  /**
+   * Reads every complete line appended since the last call into the queue <p>
+   *
+   * Stops early if the queue fills up or maxBytes worth of lines have been added; the remaining
+   * lines are picked up by a later call. A trailing partial line is left in the file until its
+   * line terminator shows up, unless the file is orphaned and nothing more is going to be appended to it
+   *
+   * @param readBuffer buffer the file is read through; it only needs to stay untouched for the duration of the call
+   * @param maxBytes size of the line bodies after which reading stops
+   * @return the number of lines added to the queue
+   * @throws IOException if the file could not be read
+   */
+  public int readLines(final ByteBuffer readBuffer, final long maxBytes) throws IOException {
+
+    lastReadLines = 0;
+    lastReadBytes = 0L;
+    readNanos = System.nanoTime();
+
+    if (stashed != null) {
+
+      final TailedLine event = stashed;
+      stashed = null;
+
+      if (!enqueue(event)) {
+        return 0;
+      }
+    }
+
+    if (finished) {
+      return lastReadLines;
+    }
+
+    if (channel == null && !open()) {
+
+      // The file can no longer be reached, so the event in progress is complete
+      if (isOrphaned() && System.nanoTime() - orphanedSince >= ORPHAN_GRACE_NANOS && flushPendingEvent()) {
+        finish();
+      }
+
+      return lastReadLines;
+    }
+
+    // The size of the open file, not of whatever file the path leads to now
+    final long size = channel.size();
+
+    if (size < position || (size > position && !fingerprintMatches())) {
+
+      if (!flushPendingEvent()) {
+        return lastReadLines;
+      }
+
+      logger.info("File {} has been truncated. Reading it from the beginning", file);
+
+      truncatedContent = new FilePosition(getPath(), fileKey, fingerprint.length, fingerprint.checksum, position);
+      position = 0L;
+      generation++;
+      fingerprint = Fingerprint.EMPTY;
+    }
+
+    final boolean reachedEnd = readAvailableLines(readBuffer, maxBytes);
+
+    // An event whose next line has not shown up in time is complete
+    if (stashed == null && multiline != null && multiline.isExpired()) {
+      flushPendingEvent();
+    }
+
+    updateFingerprint();
+
+    // An orphaned file that has stopped growing will not be written to again
+    if (reachedEnd && lastReadLines == 0 && stashed == null && isOrphaned()
+        && System.nanoTime() - orphanedSince >= ORPHAN_GRACE_NANOS) {
+
+      if (readTrailingLine() && flushPendingEvent()) {
+        finish();
+        return lastReadLines;
+      }
+    }
+
+    if (reOpen) {
+      close();
+    }
+
+    return lastReadLines;
+  }
+
+  private void finish() {
+    logger.info("File {} is no longer found under a matching name and has been read to the end. No longer tailing it", file);
+    close();
+    finished = true;
+  }
+
+  /**
+   * Queues the bytes after the last line terminator of an orphaned file as its final line
+   *
+   * @return false if the line had to be stashed because the queue is full
+   */
+  private boolean readTrailingLine() throws IOException {
+
+    final long size = channel.size();
+
+    if (position >= size) {
+      return true;
+    }
+
+    final ByteBuffer trailingBytes = ByteBuffer.allocate((int) (size - position));
+
+    while (trailingBytes.hasRemaining()) {
+      if (channel.read(trailingBytes, position + trailingBytes.position()) < 0) {
+        break;
+      }
+    }
+
+    byte[] body = Arrays.copyOf(trailingBytes.array(), trailingBytes.position());
+    body = transcode ? new String(body, charset).getBytes(UTF_8) : body;
+    position += trailingBytes.position();
+
+    final TailedLine event = (multiline == null)
+        ? new TailedLine(body, position, generation) : multiline.add(body, position, generation);
+
+    return event == null || enqueue(event);
+  }
+
+  /**
+   * Whether the leading bytes of the open file are still the ones the fingerprint was taken of
+   */
+  private boolean fingerprintMatches() throws IOException {
+    return fingerprint.length == 0 || checksum(channel, fingerprint.length) == fingerprint.checksum;
+  }
+
+  /**
+   * Adds an event to the queue, or stashes it for the next read if the queue is full
+   *
+   * @return true if the event was added to the queue
+   */
+  private boolean enqueue(final TailedLine event) {
+
+    event.setEnqueueNanos(readNanos);
+
+    if (!queue.offer(event)) {
+      stashed = event;
+      return false;
+    }
+
+    lastReadLines++;
+    lastReadBytes += event.getBody().length;
+
+    return true;
+  }
+
+  /**
+   * Queues the event the multiline assembler has in progress, if any
+   *
+   * @return false if the event had to be stashed because the queue is full
+   */
+  private boolean flushPendingEvent() {
+
+    if (multiline == null || !multiline.hasPending()) {
+      return true;
+    }
+
+    return enqueue(multiline.flush());
+  }
+
+  /**
+   * Extends the fingerprint while the file is still shorter than the fingerprint size
+   */
+  private void updateFingerprint() throws IOException {
+
+    final int length = (int) Math.min(position, PositionFile.FINGERPRINT_SIZE);
+
+    if (length > fingerprint.length) {
+      fingerprint = new Fingerprint(length, checksum(length));
+    }
+  }
+
+  /**
+   * @return true if reading stopped at the end of the file rather than on a full queue or maxBytes
+   */
+  private boolean readAvailableLines(final ByteBuffer readBuffer, final long maxBytes) throws IOException {
+
+    /* File offset of the first byte in the read buffer */
+    long bufferOffset = position;
+    long lineStart = position;
+    int bytesRead;
+    boolean reachedEnd = false;
+
+    carryLength = 0;
+
+    reading:
+    while (true) {
+
+      readBuffer.clear();
+      bytesRead = channel.read(readBuffer, bufferOffset);
+
+      if (bytesRead <= 0) {
+        reachedEnd = true;
+        break;
+      }
+
+      int segmentStart = 0;
+
+      for (int i = 0; i < bytesRead; i++) {
+
+        if (readBuffer.get(i) != LF) {
+          continue;
+        }
+
+        final byte[] body = extractLine(readBuffer, segmentStart, i);
+        segmentStart = i + 1;
+        lineStart = bufferOffset + segmentStart;
+
+        // With multiline assembly a line only produces an event once the event it belongs to is complete
+        final TailedLine event = (multiline == null)
+            ? new TailedLine(body, lineStart, generation) : multiline.add(body, lineStart, generation);
+
+        if (event != null && !enqueue(event)) {
+          break reading;
+        }
+
+        if (lastReadBytes >= maxBytes) {
+          break reading;
+        }
+      }
+
+      carry(readBuffer, segmentStart, bytesRead);
+      bufferOffset += bytesRead;
+    }
+
+    position = lineStart;
+
+    return reachedEnd;
+  }
+
+  /**
+   * Copies out the line ending at the given line feed, prefixed by any carried bytes
+   * and without its line terminator
+   */
+  private byte[] extractLine(final ByteBuffer readBuffer, final int start, final int lineFeed) {
+
+    int length = lineFeed - start;
+    int carried = carryLength;
+
+    if (length > 0 && readBuffer.get(lineFeed - 1) == CR) {
+      length--;
+    } else if (length == 0 && carried > 0 && carry[carried - 1] == CR) {
+      carried--;
+    }
+
+    final byte[] line = new byte[carried + length];
+
+    System.arraycopy(carry, 0, line, 0, carried);
+    readBuffer.position(start);
+    readBuffer.get(line, carried, length);
+
+    carryLength = 0;
+
+    return transcode ? new String(line, charset).getBytes(UTF_8) : line;
+  }
+
+  /**
+   * Keeps the bytes of a line that is not complete at the end of the read buffer
+   */
+  private void carry(final ByteBuffer readBuffer, final int start, final int end) {
+
+    final int length = end - start;
+
+    if (carryLength + length > carry.length) {
+      final byte[] largerCarry = new byte[Math.max(carry.length * 2, carryLength + length)];
+      System.arraycopy(carry, 0, largerCarry, 0, carryLength);
+      carry = largerCarry;
+    }
+
+    readBuffer.position(start);
+    readBuffer.get(carry, carryLength, length);
+    carryLength += length;
+  }
+
+  /**
+   * Opens the file by its current name, provided the name still leads to the same file
+   */
+  private boolean open() {
+
+    final File currentFile = file;
+
+    try {
+      channel = FileChannel.open(currentFile.toPath(), StandardOpenOption.READ);
+    } catch (IOException e) {
+      if (!isOrphaned()) {
+        logger.warn("File {} could not be opened: {}", currentFile, e.getMessage());
+      }
+      return false;
+    }
+
+    if (!fileKey.equals(fileKey(currentFile))) {
+      // Rotated away. The directory scanner follows the file to its new name
+      logger.debug("Path {} now leads to a different file", currentFile);
+      close();
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Identity of a file: its file key (device and inode where available), or its path on file systems without file keys
+   *
+   * @return the identity or null if the file could not be read
+   */
+  public static String fileKey(final File file) {
+
+    try {
+      final Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+      return (key != null) ? key.toString() : file.getPath();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Releases the file handle. The file is reopened on the next read
+   */
+  public void close() {
+
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.warn("File {} could not be closed cleanly", file, e);
+    }
+
+    channel = null;
+  }
+
+  /**
+   * Checksum of the first length bytes of a file
+   */
+  private static final class Fingerprint {
+
+    private static final Fingerprint EMPTY = new Fingerprint(0, new CRC32().getValue());
+
+    private final int length;
+
+    private final long checksum;
+
+    private Fingerprint(final int length, final long checksum) {
+      this.length = length;
+      this.checksum = checksum;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.apache.flume.source.file;
+
+/**
+ * A line read from a tailed file (without its line terminator) together with the offset just past its line terminator <p>
+ *
+ * Once the channel has accepted the line, that offset is where reading resumes after a restart.
+ * The generation tells which content of a truncated file the offset refers to
+ *
+ */
+public class TailedLine {
+
+  private final byte[] body;
+
+  private final long endOffset;
+
+  private final int generation;
+
+  /* When the line was added to the queue of its file, from System.nanoTime() */
+  private long enqueueNanos = 0L;
+
+  public TailedLine(final byte[] body, final long endOffset) {
+    this(body, endOffset, 0);
+  }
+
+  public TailedLine(final byte[] body, final long endOffset, final int generation) {
+    this.body = body;
+    this.endOffset = endOffset;
+    this.generation = generation;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  public long getEndOffset() {
+    return endOffset;
+  }
+
+  public int getGeneration() {
+    return generation;
+  }
+
+  public long getEnqueueNanos() {
+    return enqueueNanos;
+  }
+
+  public void setEnqueueNanos(final long enqueueNanos) {
+    this.enqueueNanos = enqueueNanos;
+  }
+}
@@ -0,0 +1,102 @@
+package org.apache.flume.source.file;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets limiting the number of lines and bytes per second <p>
+ *
+ * Each bucket holds up to one second worth of tokens, so short bursts above the rate are let
+ * through while the average stays within it. A line is let through whenever both buckets have
+ * tokens left and may take a bucket below zero, so a line larger than the rate is never stuck;
+ * the debt delays the lines after it instead <p>
+ *
+ * <b>Note:</b> not thread safe. Only used by the consumer thread.
+ *
+ */
+public class ThroughputLimiter {
+
+  private final TokenBucket lines;
+
+  private final TokenBucket bytes;
+
+  /**
+   * @param linesPerSecond maximum number of lines per second, zero for no limit
+   * @param bytesPerSecond maximum number of bytes per second, zero for no limit
+   */
+  public ThroughputLimiter(final long linesPerSecond, final long bytesPerSecond) {
+    this.lines = (linesPerSecond > 0) ? new TokenBucket(linesPerSecond) : null;
+    this.bytes = (bytesPerSecond > 0) ? new TokenBucket(bytesPerSecond) : null;
+  }
+
+  /**
+   * Whether a line may be let through right now
+   */
+  public boolean hasCapacity(final long now) {
+    return (lines == null || lines.available(now) > 0) && (bytes == null || bytes.available(now) > 0);
+  }
+
+  /**
+   * Takes the tokens for a line that has been let through
+   *
+   * @param length size of the line in bytes
+   */
+  public void acquire(final int length) {
+
+    if (lines != null) {
+      lines.take(1L);
+    }
+
+    if (bytes != null) {
+      bytes.take(length);
+    }
+  }
+
+  /**
+   * How long until a line may be let through again
+   *
+   * @return the delay in nanoseconds, zero if a line may be let through right now
+   */
+  public long delayNanos(final long now) {
+    return Math.max((lines != null) ? lines.delayNanos(now) : 0L, (bytes != null) ? bytes.delayNanos(now) : 0L);
+  }
+
+  private static final class TokenBucket {
+
+    private final double tokensPerNano;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    private TokenBucket(final long tokensPerSecond) {
+      this.tokensPerNano = tokensPerSecond / (double) TimeUnit.SECONDS.toNanos(1L);
+      this.capacity = tokensPerSecond;
+      this.tokens = tokensPerSecond;
+      this.lastRefill = System.nanoTime();
+    }
+
+    private double available(final long now) {
+
+      if (now > lastRefill) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+      }
+
+      return tokens;
+    }
+
+    private void take(final long count) {
+      tokens -= count;
+    }
+
+    private long delayNanos(final long now) {
+
+      final double available = available(now);
+
+      // Lines are let through as soon as the bucket is above zero
+      return (available > 0) ? 0L : (long) Math.ceil(-available / tokensPerNano) + 1L;
+    }
+  }
+}
@@ -0,0 +1,343 @@
+package org.apache.flume.source.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Sparse Timestamp Index
+ *
+ * Finds the byte range of a log file that covers a time window without reading the whole file <p>
+ *
+ * The file is binary searched by sampling: a probe at an offset reads the first line after it that
+ * has a timestamp. Every probe is kept in a sparse offset to timestamp index, which is saved next to
+ * the file so later searches of the same file reuse it. The index stays valid while the file keeps
+ * its file key and only grows <p>
+ *
+ * The search assumes the timestamps increase through the file. Lines that are slightly out of
+ * order are handled by filtering the lines of the range, which is done by the caller.
+ *
+ */
+public class TimestampIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimestampIndex.class);
+
+  /* The search stops once the boundary is known to within this many bytes */
+  private static final long GRANULARITY = 1024L * 1024L;
+
+  /* How far past the probe offset a line with a timestamp is looked for */
+  private static final long PROBE_LIMIT = 1024L * 1024L;
+
+  private static final int PROBE_BUFFER_SIZE = 8192;
+
+  private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+  private final File dataFile;
+
+  private final File indexFile;
+
+  private final String fileKey;
+
+  private final long length;
+
+  private final String timestampFormat;
+
+  private final Charset charset;
+
+  private final LineTimestampParser parser;
+
+  /* Probes done so far keyed by probe offset */
+  private final Map<Long, Probe> probes = new TreeMap<Long, Probe>();
+
+  private boolean modified = false;
+
+  /**
+   * Opens the index of a file, reusing the saved probes if they are still valid
+   *
+   * @param dataFile the log file
+   * @param fileKey identity of the log file
+   * @param indexFile where the index is saved
+   * @param timestampFormat how the timestamps are parsed (date format, zone and pattern), saved to detect changes
+   * @param charset charset of the log file
+   * @param parser parser for the timestamps of the lines
+   */
+  public TimestampIndex(final File dataFile, final String fileKey, final File indexFile,
+      final String timestampFormat, final Charset charset, final LineTimestampParser parser) {
+    this.dataFile = dataFile;
+    this.indexFile = indexFile;
+    this.fileKey = fileKey;
+    this.length = dataFile.length();
+    this.timestampFormat = timestampFormat;
+    this.charset = charset;
+    this.parser = parser;
+
+    load();
+  }
+
+  /**
+   * Offset of a line start such that the lines before it are all older than the given time
+   *
+   * @param time milliseconds since the epoch
+   * @return the offset where reading should start
+   * @throws IOException if the file could not be read
+   */
+  public long lowerBound(final long time) throws IOException {
+    return search(time)[0];
+  }
+
+  /**
+   * Offset such that the lines starting at or after it are all at least as recent as the given time
+   *
+   * @param time milliseconds since the epoch
+   * @return the offset where reading should stop
+   * @throws IOException if the file could not be read
+   */
+  public long upperBound(final long time) throws IOException {
+    return search(time)[1];
+  }
+
+  /**
+   * Narrows down the first line at or after the given time to within GRANULARITY bytes <p>
+   *
+   * Both offsets returned are line starts. The lines without a timestamp just before the upper offset go with the
+   * last line that has one, so the upper offset is always the start of a line with a timestamp, or the file length
+   *
+   * @return the offset of a line older than the time (or zero) and an offset after which no line is older
+   * @throws NoTimestampException if the start of the file has no line with a timestamp
+   */
+  private long[] search(final long time) throws IOException {
+
+    // A date format that matches nothing would otherwise have the whole file probed
+    if (length > 0L && probe(0L) == null) {
+      throw new NoTimestampException("No line in the first " + PROBE_LIMIT + " bytes of " + dataFile
+          + " has a timestamp in the format " + timestampFormat);
+    }
+
+    long low = 0L;
+    long high = length;
+
+    // The part of the range left to search. The lines without a timestamp between it and high go with the lines before
+    long searchHigh = length;
+
+    while (searchHigh - low > GRANULARITY) {
+
+      final long middle = low + (searchHigh - low) / 2;
+      final Probe probe = probeBefore(middle, searchHigh);
+
+      if (probe == null) {
+        // Nothing with a timestamp between the middle and the upper bound
+        searchHigh = middle;
+      } else if (probe.timestamp < time) {
+        low = probe.offset;
+      } else {
+        high = probe.offset;
+        searchHigh = probe.offset;
+      }
+    }
+
+    return new long[] { low, high };
+  }
+
+  /**
+   * Finds the first line with a timestamp that starts after the given offset and before the upper bound <p>
+   *
+   * A probe only looks PROBE_LIMIT bytes ahead, so the probes are repeated every PROBE_LIMIT bytes until the upper
+   * bound. Runs of lines without a timestamp (stack trace dumps, binary data) are then skipped instead of being taken
+   * for the end of the timestamps
+   *
+   * @return the probe or null if no line between the offset and the upper bound has a timestamp
+   */
+  private Probe probeBefore(final long offset, final long high) throws IOException {
+
+    for (long next = offset; next < high; next += PROBE_LIMIT) {
+
+      final Probe probe = probe(next);
+
+      if (probe != null) {
+        return (probe.offset < high) ? probe : null;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Finds the first line with a timestamp that starts after the given offset
+   *
+   * @return the probe or null if there is no such line within PROBE_LIMIT bytes
+   */
+  private Probe probe(final long offset) throws IOException {
+
+    final Probe saved = probes.get(offset);
+
+    if (saved != null) {
+      return saved;
+    }
+
+    // Starting one byte early tells whether the offset is a line start
+    final long base = (offset > 0L) ? offset - 1 : 0L;
+    final FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+    final InputStream in = Channels.newInputStream(channel.position(base));
+
+    try {
+
+      final LineReader reader = new LineReader(in, PROBE_BUFFER_SIZE, charset);
+
+      if (offset > 0L) {
+        reader.readLine();
+      }
+
+      while (reader.getOffset() <= PROBE_LIMIT) {
+
+        final long lineStart = base + reader.getOffset();
+        final byte[] line = reader.readLine();
+
+        if (line == null) {
+          return null;
+        }
+
+        final Long timestamp = parser.parse(line);
+
+        if (timestamp != null) {
+
+          final Probe probe = new Probe(offset, lineStart, timestamp.longValue());
+
+          probes.put(offset, probe);
+          modified = true;
+
+          return probe;
+        }
+      }
+
+      return null;
+
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  private void load() {
+
+    if (!indexFile.exists()) {
+      return;
+    }
+
+    Reader reader = null;
+
+    try {
+
+      reader = new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8);
+
+      final SavedIndex saved = gson.fromJson(reader, SavedIndex.class);
+
+      // Probes stay valid while the file is only appended to
+      if (saved != null && fileKey.equals(saved.fileKey) && timestampFormat.equals(saved.timestampFormat)
+          && saved.length <= length && saved.probes != null) {
+
+        for (Probe probe : saved.probes) {
+          probes.put(probe.probe, probe);
+        }
+
+        logger.debug("Loaded {} probes from timestamp index {}", probes.size(), indexFile);
+      }
+
+    } catch (IOException e) {
+      logger.warn("Timestamp index " + indexFile + " could not be read. Ignoring it", e);
+    } catch (JsonParseException e) {
+      logger.warn("Timestamp index " + indexFile + " is corrupt. Ignoring it", e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Saves the index if searches added probes to it
+   */
+  public void save() {
+
+    if (!modified) {
+      return;
+    }
+
+    try {
+
+      StateFiles.writeAtomically(indexFile, gson.toJson(new SavedIndex(fileKey, length, timestampFormat, new ArrayList<Probe>(probes.values()))));
+
+      modified = false;
+
+    } catch (IOException e) {
+      logger.warn("Unable to save timestamp index " + indexFile, e);
+    }
+  }
+
+  /**
+   * Thrown when a file does not start with lines in the timestamp format, which usually means the format is wrong
+   */
+  public static class NoTimestampException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NoTimestampException(final String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * The first line with a timestamp found after a probe offset
+   */
+  private static final class Probe {
+
+    private final long probe;
+
+    private final long offset;
+
+    private final long timestamp;
+
+    private Probe(final long probe, final long offset, final long timestamp) {
+      this.probe = probe;
+      this.offset = offset;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /**
+   * Content of the index file
+   */
+  private static final class SavedIndex {
+
+    private final String fileKey;
+
+    private final long length;
+
+    private final String timestampFormat;
+
+    private final List<Probe> probes;
+
+    private SavedIndex(final String fileKey, final long length, final String timestampFormat, final List<Probe> probes) {
+      this.fileKey = fileKey;
+      this.length = length;
+      this.timestampFormat = timestampFormat;
+      this.probes = probes;
+    }
+  }
+}